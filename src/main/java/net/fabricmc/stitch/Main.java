@@ -17,6 +17,9 @@
 package net.fabricmc.stitch;
 
 import net.fabricmc.stitch.commands.*;
+import net.fabricmc.stitch.commands.tinyv2.CommandCompleteHierarchyMappings;
+import net.fabricmc.stitch.commands.tinyv2.CommandComposeTiny;
+import net.fabricmc.stitch.commands.tinyv2.CommandMappingStats;
 import net.fabricmc.stitch.commands.tinyv2.CommandMergeTinyV2;
 import net.fabricmc.stitch.commands.tinyv2.CommandProposeV2FieldNames;
 import net.fabricmc.stitch.commands.tinyv2.CommandReorderTinyV2;
@@ -35,17 +38,27 @@ public class Main {
     static {
         addCommand(new CommandAsmTrace());
         addCommand(new CommandGenerateIntermediary());
+        addCommand(new CommandGenerateIntermediaryShard());
+        addCommand(new CommandGenerateIntermediarySharded());
         addCommand(new CommandGeneratePrefixRemapper());
         addCommand(new CommandMatcherToTiny());
+        addCommand(new CommandMatchJars());
+        addCommand(new CommandRemapJar());
+        addCommand(new CommandTransformJar());
         addCommand(new CommandMergeJar());
+        addCommand(new CommandMergeJars());
         addCommand(new CommandMergeTiny());
         addCommand(new CommandProposeFieldNames());
         addCommand(new CommandReorderTiny());
         addCommand(new CommandRewriteIntermediary());
         addCommand(new CommandUpdateIntermediary());
+        addCommand(new CommandUpdateIntermediaryChain());
         addCommand(new CommandReorderTinyV2());
         addCommand(new CommandMergeTinyV2());
         addCommand(new CommandProposeV2FieldNames());
+        addCommand(new CommandMappingStats());
+        addCommand(new CommandComposeTiny());
+        addCommand(new CommandCompleteHierarchyMappings());
         addCommand(new CommandValidateRecords());
     }
 
@@ -29,7 +29,7 @@ public class CommandGenerateIntermediary extends Command {
 
     @Override
     public String getHelpString() {
-        return "<input-jar> <mapping-name> [-t|--target-namespace <namespace>] [-p|--obfuscation-pattern <regex pattern>]...";
+        return "<input-jar> <mapping-name> [-t|--target-namespace <namespace>] [-p|--obfuscation-pattern <regex pattern>]... [--stream] [--tinyv2]";
     }
 
     @Override
@@ -67,6 +67,12 @@ public class CommandGenerateIntermediary extends Command {
                     state.addObfuscatedPattern(args[i + 1]);
                     i++;
                     break;
+                case "--stream":
+                    state.enableStreaming();
+                    break;
+                case "--tinyv2":
+                    state.setWriteTinyV2(true);
+                    break;
             }
         }
 
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.representation.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Generates the intermediary mappings of one shard planned by {@link CommandGenerateIntermediarySharded}.
+ */
+public class CommandGenerateIntermediaryShard extends Command {
+    public CommandGenerateIntermediaryShard() {
+        super("generateIntermediaryShard");
+    }
+
+    @Override
+    public String getHelpString() {
+        return "<input-jar> <shard-plan> <shard-mapping-name> [--existing <mapping-file>] [-t|--target-namespace <namespace>] [-p|--obfuscation-pattern <regex pattern>]... [--stream]";
+    }
+
+    @Override
+    public boolean isArgumentCountValid(int count) {
+        return count >= 3;
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        File file = new File(args[0]);
+        JarRootEntry jarEntry = new JarRootEntry(file);
+        try {
+            JarReader reader = new JarReader(jarEntry);
+            reader.apply();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        IntermediaryShardPlan plan = IntermediaryShardPlan.read(new File(args[1]));
+        GenState state = new GenState();
+        state.disableInteractive();
+        state.setClassFilter(plan.getClasses());
+
+        for (String kind : IntermediaryShardPlan.COUNTER_KINDS) {
+            state.setCounter(kind, plan.getStart(kind));
+        }
+
+        boolean clearedPatterns = false;
+
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i].toLowerCase(Locale.ROOT)) {
+                case "--existing":
+                    state.prepareExisting(new File(args[i + 1]));
+                    i++;
+                    break;
+                case "-t":
+                case "--target-namespace":
+                    state.setTargetNamespace(args[i + 1]);
+                    i++;
+                    break;
+                case "-p":
+                case "--obfuscation-pattern":
+                    if (!clearedPatterns)
+                        state.clearObfuscatedPatterns();
+                    clearedPatterns = true;
+
+                    state.addObfuscatedPattern(args[i + 1]);
+                    i++;
+                    break;
+                case "--stream":
+                    state.enableStreaming();
+                    break;
+            }
+        }
+
+        state.generate(new File(args[2]), jarEntry, null);
+
+        for (String kind : IntermediaryShardPlan.COUNTER_KINDS) {
+            if (state.getCounters().get(kind) > plan.getEnd(kind)) {
+                throw new RuntimeException("Shard overran its " + kind + " counter range " + plan.getStart(kind) + "-" + plan.getEnd(kind) + "!");
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.Main;
+import net.fabricmc.stitch.representation.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Splits {@code generateIntermediary} across several worker JVMs. The jar is partitioned by
+ * hierarchy component, every shard gets its own counter ranges, and the shard outputs are merged
+ * back into one file in the same class order a single run would write.
+ */
+public class CommandGenerateIntermediarySharded extends Command {
+    public CommandGenerateIntermediarySharded() {
+        super("generateIntermediarySharded");
+    }
+
+    @Override
+    public String getHelpString() {
+        return "<input-jar> <mapping-name> [-s|--shards <count>] [-t|--target-namespace <namespace>] [-p|--obfuscation-pattern <regex pattern>]... [--stream]";
+    }
+
+    @Override
+    public boolean isArgumentCountValid(int count) {
+        return count >= 2;
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        File file = new File(args[0]);
+        JarRootEntry jarEntry = new JarRootEntry(file);
+        try {
+            JarReader reader = new JarReader(jarEntry);
+            reader.apply();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        File mappingFile = new File(args[1]);
+        int shardCount = Runtime.getRuntime().availableProcessors();
+        List<String> workerArgs = new ArrayList<>();
+        GenState state = new GenState();
+        boolean clearedPatterns = false;
+
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i].toLowerCase(Locale.ROOT)) {
+                case "-s":
+                case "--shards":
+                    shardCount = Integer.parseInt(args[i + 1]);
+                    i++;
+                    break;
+                case "-t":
+                case "--target-namespace":
+                    workerArgs.add(args[i]);
+                    workerArgs.add(args[i + 1]);
+                    i++;
+                    break;
+                case "-p":
+                case "--obfuscation-pattern":
+                    if (!clearedPatterns)
+                        state.clearObfuscatedPatterns();
+                    clearedPatterns = true;
+
+                    state.addObfuscatedPattern(args[i + 1]);
+                    workerArgs.add(args[i]);
+                    workerArgs.add(args[i + 1]);
+                    i++;
+                    break;
+                case "--stream":
+                    workerArgs.add(args[i]);
+                    break;
+            }
+        }
+
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1!");
+        }
+
+        if (mappingFile.exists()) {
+            System.err.println("Target file exists - loading counters...");
+            state.readCounters(mappingFile);
+            workerArgs.add("--existing");
+            workerArgs.add(mappingFile.getAbsolutePath());
+        }
+
+        List<IntermediaryShardPlan> plans = IntermediaryShardPlan.partition(jarEntry, shardCount, state.getCounters(), state.createObfuscatedMatcher());
+        Path workDir = Files.createTempDirectory(mappingFile.getAbsoluteFile().getParentFile().toPath(), mappingFile.getName() + ".shards");
+
+        try {
+            System.err.println("Generating new mappings in " + plans.size() + " shards...");
+            List<Process> processes = new ArrayList<>();
+
+            for (int i = 0; i < plans.size(); i++) {
+                if (plans.get(i).isEmpty()) {
+                    processes.add(null);
+                    continue;
+                }
+
+                File planFile = workDir.resolve("shard-" + i + ".plan").toFile();
+                plans.get(i).write(planFile);
+                processes.add(startWorker(file, planFile, workDir.resolve("shard-" + i + ".tiny").toFile(), workerArgs));
+            }
+
+            // wait for every worker before failing, the work directory is deleted right after
+            List<Integer> failed = new ArrayList<>();
+            for (int i = 0; i < processes.size(); i++) {
+                if (processes.get(i) != null && processes.get(i).waitFor() != 0) {
+                    failed.add(i);
+                }
+            }
+
+            if (!failed.isEmpty()) {
+                throw new RuntimeException("Shards " + failed + " failed!");
+            }
+
+            System.err.println("Merging shards...");
+            merge(jarEntry, plans, workDir, mappingFile, state);
+        } finally {
+            deleteWorkDir(workDir);
+        }
+
+        System.err.println("Done!");
+    }
+
+    private static void deleteWorkDir(Path workDir) throws IOException {
+        File[] files = workDir.toFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                Files.delete(f.toPath());
+            }
+        }
+
+        Files.delete(workDir);
+    }
+
+    private static Process startWorker(File jar, File plan, File output, List<String> workerArgs) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.add("generateIntermediaryShard");
+        command.add(jar.getAbsolutePath());
+        command.add(plan.getAbsolutePath());
+        command.add(output.getAbsolutePath());
+        command.addAll(workerArgs);
+
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private static void merge(JarRootEntry jarEntry, List<IntermediaryShardPlan> plans, Path workDir, File mappingFile, GenState state) throws IOException {
+        ShardReader[] readers = new ShardReader[plans.size()];
+        Map<String, Integer> owners = new HashMap<>();
+        // the target may hold the existing mappings, so it is only replaced once the merge is complete
+        File outputFile = File.createTempFile("stitch-" + mappingFile.getName(), ".tmp", mappingFile.getAbsoluteFile().getParentFile());
+
+        try {
+            for (int i = 0; i < plans.size(); i++) {
+                if (!plans.get(i).isEmpty()) {
+                    readers[i] = new ShardReader(workDir.resolve("shard-" + i + ".tiny"), plans.get(i).getClasses());
+                }
+
+                for (String c : plans.get(i).getClasses()) {
+                    owners.put(c, i);
+                }
+            }
+
+            try (MappingOutputBuffer writer = new MappingOutputBuffer(new FileOutputStream(outputFile), MappingOutputBuffer.DEFAULT_CAPACITY)) {
+                writer.append("v1\tofficial\tintermediary\n");
+
+                for (JarClassEntry c : jarEntry.getClasses()) {
+                    readers[owners.get(c.getFullyQualifiedName())].copyBlock(writer);
+                    writer.flush();
+                }
+
+                for (String kind : IntermediaryShardPlan.COUNTER_KINDS) {
+                    int counter = state.getCounters().getOrDefault(kind, 1);
+
+                    // a shard that allocated nothing still reports the start of its range
+                    for (int i = 0; i < plans.size(); i++) {
+                        if (readers[i] != null && readers[i].counters.get(kind) > plans.get(i).getStart(kind)) {
+                            counter = Math.max(counter, readers[i].counters.get(kind));
+                        }
+                    }
+
+                    state.setCounter(kind, counter);
+                }
+
+                state.writeCounters(writer);
+            }
+
+            Files.move(outputFile.toPath(), mappingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            for (ShardReader reader : readers) {
+                if (reader != null) {
+                    reader.reader.close();
+                }
+            }
+
+            Files.deleteIfExists(outputFile.toPath());
+        }
+    }
+
+    /**
+     * Reads a shard's output one top-level class at a time. A class block ends where the next
+     * class of the shard's plan starts.
+     */
+    private static class ShardReader {
+        private final BufferedReader reader;
+        private final List<String> classes;
+        private int nextClass;
+        private final Map<String, Integer> counters = new HashMap<>();
+        private String line;
+
+        ShardReader(Path path, List<String> classes) throws IOException {
+            this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+            this.classes = classes;
+
+            reader.readLine(); // header
+            line = reader.readLine();
+        }
+
+        void copyBlock(MappingOutputBuffer writer) throws IOException {
+            String name = classes.get(nextClass++);
+            String next = nextClass < classes.size() ? "CLASS\t" + classes.get(nextClass) + "\t" : null;
+            if (line == null || !line.startsWith("CLASS\t" + name + "\t")) {
+                throw new IOException("Shard output is missing class " + name + "!");
+            }
+
+            do {
+                writer.append(line).append('\n');
+                line = reader.readLine();
+            } while (line != null && !line.startsWith("# INTERMEDIARY-COUNTER") && (next == null || !line.startsWith(next)));
+
+            while (line != null && line.startsWith("# INTERMEDIARY-COUNTER")) {
+                String[] parts = line.split(" ");
+                counters.put(parts[2], Integer.parseInt(parts[3]));
+                line = reader.readLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.util.ObfuscationPatternMatcher;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+public class CommandMatchJars extends Command {
+    public CommandMatchJars() {
+        super("matchJars");
+    }
+
+    @Override
+    public String getHelpString() {
+        return "<old-jar> <new-jar> <match-file> [-p|--obfuscation-pattern <regex pattern>]...";
+    }
+
+    @Override
+    public boolean isArgumentCountValid(int count) {
+        return count >= 3;
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        List<Pattern> patterns = new ArrayList<>();
+
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i].toLowerCase(Locale.ROOT)) {
+                case "-p":
+                case "--obfuscation-pattern":
+                    patterns.add(Pattern.compile(args[i + 1]));
+                    i++;
+                    break;
+            }
+        }
+
+        if (patterns.isEmpty()) {
+            patterns.add(Pattern.compile("^[^/]*$"));
+        }
+
+        System.err.println("Loading jars...");
+        JarMatcher matcher = new JarMatcher(new File(args[0]), new File(args[1]), new ObfuscationPatternMatcher(patterns));
+
+        System.err.println("Matching...");
+        matcher.match();
+
+        matcher.write(new File(args[2]));
+        System.err.println("Done! Matched " + matcher.getClassMatchCount() + " classes.");
+    }
+}
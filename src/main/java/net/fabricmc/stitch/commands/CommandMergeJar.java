@@ -33,7 +33,7 @@ public class CommandMergeJar extends Command {
 
     @Override
     public String getHelpString() {
-        return "<client-jar> <server-jar> <output> [--removeSnowman] [--syntheticparams]";
+        return "<client-jar> <server-jar> <output> [--removeSnowman] [--syntheticparams] [--cache <directory>] [--normalizedCompare]";
     }
 
     @Override
@@ -46,7 +46,8 @@ public class CommandMergeJar extends Command {
         File in1f = new File(args[0]);
         File in2f = new File(args[1]);
         File outf = new File(args[2]);
-        boolean removeSnowman = false, syntheticParams = false;
+        File cacheDir = null;
+        boolean removeSnowman = false, syntheticParams = false, normalizedCompare = false;
 
         for (int i = 3; i < args.length; i++) {
             if (args[i].startsWith("--")) {
@@ -57,6 +58,15 @@ public class CommandMergeJar extends Command {
                     case "syntheticparams":
                         syntheticParams = true;
                         break;
+                    case "cache":
+                        cacheDir = new File(args[++i]);
+                        break;
+                    case "normalizedcompare":
+                        normalizedCompare = true;
+                        break;
+                    case "stream":
+                        // every merge streams now, still accepted for existing scripts
+                        break;
                 }
             }
         }
@@ -78,6 +88,14 @@ public class CommandMergeJar extends Command {
                 merger.enableSyntheticParamsOffset();
             }
 
+            if (cacheDir != null) {
+                merger.enableCache(cacheDir);
+            }
+
+            if (normalizedCompare) {
+                merger.enableNormalizedComparison();
+            }
+
             System.out.println("Merging...");
 
             merger.merge();
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.merge.ClassMerger;
+import net.fabricmc.stitch.merge.JarMerger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class CommandMergeJars extends Command {
+    public CommandMergeJars() {
+        super("mergeJars");
+    }
+
+    @Override
+    public String getHelpString() {
+        return "<output> <environment>=<jar>... [--removeSnowman] [--syntheticparams] [--cache <directory>] [--normalizedCompare]";
+    }
+
+    @Override
+    public boolean isArgumentCountValid(int count) {
+        return count >= 3;
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        File outf = new File(args[0]);
+        List<String> environments = new ArrayList<>();
+        List<File> inputs = new ArrayList<>();
+        File cacheDir = null;
+        boolean removeSnowman = false, syntheticParams = false, normalizedCompare = false;
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                switch (args[i].substring(2).toLowerCase(Locale.ROOT)) {
+                    case "removesnowman":
+                        removeSnowman = true;
+                        break;
+                    case "syntheticparams":
+                        syntheticParams = true;
+                        break;
+                    case "cache":
+                        cacheDir = new File(args[++i]);
+                        break;
+                    case "normalizedcompare":
+                        normalizedCompare = true;
+                        break;
+                }
+            } else {
+                int split = args[i].indexOf('=');
+
+                if (split <= 0) {
+                    throw new IllegalArgumentException("Expected <environment>=<jar>, got " + args[i]);
+                }
+
+                File input = new File(args[i].substring(split + 1));
+
+                if (!input.exists() || !input.isFile()) {
+                    throw new FileNotFoundException("JAR " + input + " could not be found!");
+                }
+
+                String environment = args[i].substring(0, split).toUpperCase(Locale.ROOT);
+
+                if (!ClassMerger.ENVIRONMENTS.contains(environment)) {
+                    throw new IllegalArgumentException("Unknown environment " + environment + ", expected one of " + ClassMerger.ENVIRONMENTS);
+                }
+
+                environments.add(environment);
+                inputs.add(input);
+            }
+        }
+
+        if (inputs.size() < 2) {
+            throw new IllegalArgumentException("Need at least two jars to merge");
+        }
+
+        try (JarMerger merger = new JarMerger(environments, inputs, outf)) {
+            if (removeSnowman) {
+                merger.enableSnowmanRemoval();
+            }
+
+            if (syntheticParams) {
+                merger.enableSyntheticParamsOffset();
+            }
+
+            if (cacheDir != null) {
+                merger.enableCache(cacheDir);
+            }
+
+            if (normalizedCompare) {
+                merger.enableNormalizedComparison();
+            }
+
+            System.out.println("Merging " + inputs.size() + " jars...");
+
+            merger.merge();
+
+            System.out.println("Merge completed!");
+        }
+    }
+}
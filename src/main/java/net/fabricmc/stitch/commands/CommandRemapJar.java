@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.representation.JarReader;
+import net.fabricmc.stitch.representation.JarRootEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Locale;
+
+public class CommandRemapJar extends Command {
+    public CommandRemapJar() {
+        super("remapJar");
+    }
+
+    @Override
+    public String getHelpString() {
+        return "<input-jar> <mapping-file> <output-jar> [-f|--from <namespace>] [-t|--to <namespace>]";
+    }
+
+    @Override
+    public boolean isArgumentCountValid(int count) {
+        return count >= 3;
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        File input = new File(args[0]);
+        File mappings = new File(args[1]);
+        File output = new File(args[2]);
+        String from = "official";
+        String to = "intermediary";
+
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i].toLowerCase(Locale.ROOT)) {
+                case "-f":
+                case "--from":
+                    from = args[i + 1];
+                    i++;
+                    break;
+                case "-t":
+                case "--to":
+                    to = args[i + 1];
+                    i++;
+                    break;
+            }
+        }
+
+        if (!input.exists() || !input.isFile()) {
+            throw new FileNotFoundException("Input JAR could not be found!");
+        }
+
+        if (!mappings.exists() || !mappings.isFile()) {
+            throw new FileNotFoundException("Mapping file could not be found!");
+        }
+
+        JarRootEntry jarEntry = new JarRootEntry(input);
+        JarReader.Builder.create(jarEntry).joinMethodEntries(false).build().apply();
+
+        System.err.println("Loading mappings...");
+        GenMap map = new GenMap();
+        GenState.loadMappings(map, mappings, from, to);
+
+        System.err.println("Remapping...");
+        new JarRemapper(jarEntry, map).remap(input, output);
+        System.err.println("Done!");
+    }
+}
@@ -24,6 +24,12 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Locale;
 
+/**
+ * Rewrites a mapping file against its own jar, giving every class, field and method a line.
+ *
+ * <p>{@code --writeAll} also writes constructors, static initializers and overriding methods, each override under the
+ * name of the method it overrides. {@code --parallel} looks up the old names on all cores; the output is the same.
+ */
 public class CommandRewriteIntermediary extends Command {
     public CommandRewriteIntermediary() {
         super("rewriteIntermediary");
@@ -31,7 +37,7 @@ public class CommandRewriteIntermediary extends Command {
 
     @Override
     public String getHelpString() {
-        return "<jar> <old-mapping-file> <new-mapping-file> [--writeAll]";
+        return "<jar> <old-mapping-file> <new-mapping-file> [--writeAll (also write <init>, <clinit> and overrides)] [--tinyv2] [--parallel]";
     }
 
     @Override
@@ -57,6 +63,12 @@ public class CommandRewriteIntermediary extends Command {
                 case "--writeall":
                     state.setWriteAll(true);
                     break;
+                case "--tinyv2":
+                    state.setWriteTinyV2(true);
+                    break;
+                case "--parallel":
+                    state.enableParallel();
+                    break;
             }
         }
 
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.merge.ClassMerger;
+import net.fabricmc.stitch.util.JarTransformer;
+import net.fabricmc.stitch.util.SnowmanClassVisitor;
+import net.fabricmc.stitch.util.StitchUtil;
+import net.fabricmc.stitch.util.SyntheticParameterClassVisitor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Locale;
+
+public class CommandTransformJar extends Command {
+    public CommandTransformJar() {
+        super("transformJar");
+    }
+
+    /**
+     * The visitors run in the order their options are given.
+     */
+    @Override
+    public String getHelpString() {
+        return "<input-jar> <output-jar> [--removeSnowman] [--syntheticparams] [--side <CLIENT|SERVER>] [--threads <count>]";
+    }
+
+    @Override
+    public boolean isArgumentCountValid(int count) {
+        return count >= 2;
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        JarTransformer transformer = new JarTransformer();
+
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i].toLowerCase(Locale.ROOT)) {
+                case "--removesnowman":
+                    transformer.addVisitor((next) -> new SnowmanClassVisitor(StitchUtil.ASM_VERSION, next));
+                    break;
+                case "--syntheticparams":
+                    transformer.addVisitor((next) -> new SyntheticParameterClassVisitor(StitchUtil.ASM_VERSION, next));
+                    break;
+                case "--side":
+                    String side = args[i + 1].toUpperCase(Locale.ROOT);
+                    transformer.addVisitor((next) -> new ClassMerger.SidedClassVisitor(StitchUtil.ASM_VERSION, next, side));
+                    i++;
+                    break;
+                case "--threads":
+                    transformer.setThreads(Integer.parseInt(args[i + 1]));
+                    i++;
+                    break;
+            }
+        }
+
+        if (!input.exists() || !input.isFile()) {
+            throw new FileNotFoundException("Input JAR could not be found!");
+        }
+
+        System.out.println("Transforming...");
+        transformer.transform(input, output);
+        System.out.println("Transform completed!");
+    }
+}
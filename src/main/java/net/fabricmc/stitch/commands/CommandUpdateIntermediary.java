@@ -30,7 +30,7 @@ public class CommandUpdateIntermediary extends Command {
 
     @Override
     public String getHelpString() {
-        return "<old-jar> <new-jar> <old-mapping-file> <new-mapping-file> <match-file> [-t|--target-namespace <namespace>] [-p|--obfuscation-pattern <regex pattern>]";
+        return "<old-jar> <new-jar> <old-mapping-file> <new-mapping-file> <match-file> [-t|--target-namespace <namespace>] [-p|--obfuscation-pattern <regex pattern>] [--stream] [--tinyv2] [--conflict-report <file>] [--conflict-resolutions <file>]";
     }
 
     @Override
@@ -40,14 +40,8 @@ public class CommandUpdateIntermediary extends Command {
 
     @Override
     public void run(String[] args) throws Exception {
-        File fileOld = new File(args[0]);
-        JarRootEntry jarOld = new JarRootEntry(fileOld);
-        try {
-            JarReader reader = new JarReader(jarOld);
-            reader.apply();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // only needed when a matched method has no intermediary name of its own
+        LazyClassStorage jarOld = new LazyClassStorage(new File(args[0]));
 
         File fileNew = new File(args[1]);
         JarRootEntry jarNew = new JarRootEntry(fileNew);
@@ -77,6 +71,20 @@ public class CommandUpdateIntermediary extends Command {
                     state.addObfuscatedPattern(args[i + 1]);
                     i++;
                     break;
+                case "--stream":
+                    state.enableStreaming();
+                    break;
+                case "--tinyv2":
+                    state.setWriteTinyV2(true);
+                    break;
+                case "--conflict-report":
+                    state.setConflictReport(new File(args[i + 1]));
+                    i++;
+                    break;
+                case "--conflict-resolutions":
+                    state.readConflictResolutions(new File(args[i + 1]));
+                    i++;
+                    break;
             }
         }
 
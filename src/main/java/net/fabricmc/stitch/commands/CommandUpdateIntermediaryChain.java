@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.representation.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs {@code updateIntermediary} over a chain of versions in one process. Every jar is read once
+ * and serves as the new jar of one step and the old jar of the next, and every step's mappings are
+ * handed to the next step from memory.
+ *
+ * <p>Conflicts are keyed by the obfuscated names of one version, so each step has its own conflict
+ * report and resolution file: the given path with the number of the version the step generates
+ * appended, like {@code report.txt.3} for {@code mapping-file-3}. Steps without a resolution file
+ * have no resolutions.
+ */
+public class CommandUpdateIntermediaryChain extends Command {
+    public CommandUpdateIntermediaryChain() {
+        super("updateIntermediaryChain");
+    }
+
+    @Override
+    public String getHelpString() {
+        return "<jar-1> <mapping-file-1> <match-file-1-2> <jar-2> <mapping-file-2> [<match-file-2-3> <jar-3> <mapping-file-3>]... [-t|--target-namespace <namespace>] [-p|--obfuscation-pattern <regex pattern>]... [--stream] [--tinyv2] [--conflict-report <file>] [--conflict-resolutions <file>]";
+    }
+
+    @Override
+    public boolean isArgumentCountValid(int count) {
+        return count >= 5;
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        int positional = 0;
+        while (positional < args.length && !args[positional].startsWith("-")) {
+            positional++;
+        }
+
+        if (positional < 5 || (positional - 2) % 3 != 0) {
+            throw new IllegalArgumentException("Expected a first jar and mapping file, followed by (match file, jar, mapping file) for each later version!");
+        }
+
+        ClassStorage jarOld = new LazyClassStorage(new File(args[0]));
+        GenMap mappingsOld = null;
+        Map<String, Integer> countersOld = null;
+
+        for (int step = 2, version = 2; step < positional; step += 3, version++) {
+            File matches = new File(args[step]);
+            File mappingFile = new File(args[step + 2]);
+            JarRootEntry jarNew = readJar(new File(args[step + 1]));
+
+            GenState state = new GenState();
+            state.collectMappings();
+            applyOptions(state, args, positional, version);
+
+            System.err.println("Loading remapping files...");
+            if (mappingsOld == null) {
+                state.prepareUpdate(new File(args[1]), matches);
+            } else {
+                state.prepareUpdate(mappingsOld, countersOld, matches);
+            }
+
+            System.err.println("Generating " + mappingFile + "...");
+            state.generate(mappingFile, jarNew, jarOld);
+
+            jarOld = jarNew;
+            mappingsOld = state.getGeneratedMappings();
+            countersOld = state.getCounters();
+        }
+
+        System.err.println("Done!");
+    }
+
+    private static JarRootEntry readJar(File file) {
+        JarRootEntry jarEntry = new JarRootEntry(file);
+        try {
+            JarReader reader = new JarReader(jarEntry);
+            reader.apply();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return jarEntry;
+    }
+
+    private static File getStepFile(String path, int version) {
+        return new File(path + "." + version);
+    }
+
+    private static void applyOptions(GenState state, String[] args, int start, int version) throws IOException {
+        boolean clearedPatterns = false;
+
+        for (int i = start; i < args.length; i++) {
+            switch (args[i].toLowerCase(Locale.ROOT)) {
+                case "-t":
+                case "--target-namespace":
+                    state.setTargetNamespace(args[i + 1]);
+                    i++;
+                    break;
+                case "-p":
+                case "--obfuscation-pattern":
+                    if (!clearedPatterns)
+                        state.clearObfuscatedPatterns();
+                    clearedPatterns = true;
+
+                    state.addObfuscatedPattern(args[i + 1]);
+                    i++;
+                    break;
+                case "--stream":
+                    state.enableStreaming();
+                    break;
+                case "--tinyv2":
+                    state.setWriteTinyV2(true);
+                    break;
+                case "--conflict-report":
+                    state.setConflictReport(getStepFile(args[i + 1], version));
+                    i++;
+                    break;
+                case "--conflict-resolutions":
+                    File resolutions = getStepFile(args[i + 1], version);
+                    if (resolutions.exists()) {
+                        state.readConflictResolutions(resolutions);
+                    }
+
+                    i++;
+                    break;
+            }
+        }
+    }
+}
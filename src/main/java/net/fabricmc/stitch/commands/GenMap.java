@@ -16,10 +16,18 @@
 
 package net.fabricmc.stitch.commands;
 import net.fabricmc.mappings.*;
+import net.fabricmc.stitch.commands.tinyv2.TinyClass;
+import net.fabricmc.stitch.commands.tinyv2.TinyField;
+import net.fabricmc.stitch.commands.tinyv2.TinyFile;
+import net.fabricmc.stitch.commands.tinyv2.TinyMethod;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class GenMap {
@@ -63,6 +71,136 @@ public class GenMap {
             map.get(methodEntry.get(from).getOwner()).methodMaps.put(methodEntry.get(from), methodEntry.get(to));
         }
     }
+
+    public void load(TinyFile mappings, String from, String to) {
+        List<String> namespaces = mappings.getHeader().getNamespaces();
+        int fromIndex = namespaces.indexOf(from);
+        int toIndex = namespaces.indexOf(to);
+
+        if (fromIndex < 0 || toIndex < 0) {
+            throw new IllegalArgumentException("Mappings do not contain namespaces " + from + " and " + to + ": " + namespaces);
+        }
+
+        // descriptors are stored in the first namespace
+        Remapper fromRemapper = getDescriptorRemapper(mappings, fromIndex);
+        Remapper toRemapper = getDescriptorRemapper(mappings, toIndex);
+
+        for (TinyClass tinyClass : mappings.getClassEntries()) {
+            String ownerFrom = getName(tinyClass.getClassNames(), fromIndex);
+            String ownerTo = getName(tinyClass.getClassNames(), toIndex);
+            Class c = new Class(ownerTo);
+            map.put(ownerFrom, c);
+
+            for (TinyField field : tinyClass.getFields()) {
+                String desc = field.getFieldDescriptorInFirstNamespace();
+                c.fieldMaps.put(
+                        new EntryTriple(ownerFrom, getName(field.getFieldNames(), fromIndex), fromRemapper.mapDesc(desc)),
+                        new EntryTriple(ownerTo, getName(field.getFieldNames(), toIndex), toRemapper.mapDesc(desc))
+                );
+            }
+
+            for (TinyMethod method : tinyClass.getMethods()) {
+                String desc = method.getMethodDescriptorInFirstNamespace();
+                c.methodMaps.put(
+                        new EntryTriple(ownerFrom, getName(method.getMethodNames(), fromIndex), fromRemapper.mapMethodDesc(desc)),
+                        new EntryTriple(ownerTo, getName(method.getMethodNames(), toIndex), toRemapper.mapMethodDesc(desc))
+                );
+            }
+        }
+    }
+
+    /**
+     * Reads tiny v1 mappings line by line straight into this map, without building the whole mapping
+     * set first. Like {@link #load(Mappings, String, String)}, the descriptors of each side are in that
+     * side's namespace. {@code from} has to be the first namespace. Comment lines are handed to the given
+     * consumer.
+     */
+    public void loadTinyV1(BufferedReader reader, String from, String to, Consumer<String> commentConsumer) throws IOException {
+        String header = reader.readLine();
+        List<String> namespaces = header != null && header.startsWith("v1\t") ? Arrays.asList(header.substring(3).split("\t")) : Collections.emptyList();
+        int fromIndex = namespaces.indexOf(from);
+        int toIndex = namespaces.indexOf(to);
+
+        if (fromIndex != 0 || toIndex < 0) {
+            throw new IllegalArgumentException("Mappings do not start with namespace " + from + " or lack namespace " + to + ": " + namespaces);
+        }
+
+        // members may come before the class line of their owner
+        List<String[]> pendingMembers = new ArrayList<>();
+        List<Class> loaded = new ArrayList<>();
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("#")) {
+                commentConsumer.accept(line);
+                continue;
+            }
+
+            String[] parts = line.split("\t");
+
+            if (parts[0].equals("CLASS")) {
+                addClass(parts[1], parts[1 + toIndex]);
+                loaded.add(map.get(parts[1]));
+            } else if (parts[0].equals("FIELD") || parts[0].equals("METHOD")) {
+                if (map.containsKey(parts[1])) {
+                    addMember(parts, toIndex);
+                } else {
+                    pendingMembers.add(parts);
+                }
+            }
+        }
+
+        for (String[] parts : pendingMembers) {
+            if (!map.containsKey(parts[1])) {
+                addClass(parts[1], parts[1]);
+                loaded.add(map.get(parts[1]));
+            }
+
+            addMember(parts, toIndex);
+        }
+
+        // the target descriptors can only be mapped once every class name is known
+        Map<String, String> classNames = new HashMap<>();
+        for (Map.Entry<String, Class> entry : map.entrySet()) {
+            classNames.put(entry.getKey(), entry.getValue().name);
+        }
+
+        Remapper remapper = new SimpleRemapper(classNames);
+
+        for (Class c : loaded) {
+            c.fieldMaps.replaceAll((k, v) -> new EntryTriple(v.getOwner(), v.getName(), remapper.mapDesc(v.getDesc())));
+            c.methodMaps.replaceAll((k, v) -> new EntryTriple(v.getOwner(), v.getName(), remapper.mapMethodDesc(v.getDesc())));
+        }
+    }
+
+    private void addMember(String[] parts, int toIndex) {
+        Class c = map.get(parts[1]);
+        EntryTriple from = new EntryTriple(parts[1], parts[3], parts[2]);
+        EntryTriple to = new EntryTriple(c.name, parts[3 + toIndex], parts[2]);
+
+        if (parts[0].equals("FIELD")) {
+            c.fieldMaps.put(from, to);
+        } else {
+            c.methodMaps.put(from, to);
+        }
+    }
+
+    private static String getName(List<String> names, int index) {
+        // unmapped names are left empty in tiny v2, fall back to the first namespace
+        String name = index < names.size() ? names.get(index) : "";
+        return name.isEmpty() ? names.get(0) : name;
+    }
+
+    private static Remapper getDescriptorRemapper(TinyFile mappings, int index) {
+        Map<String, String> classNames = new HashMap<>();
+        if (index != 0) {
+            for (TinyClass tinyClass : mappings.getClassEntries()) {
+                classNames.put(tinyClass.getClassNames().get(0), getName(tinyClass.getClassNames(), index));
+            }
+        }
+
+        return new SimpleRemapper(classNames);
+    }
     
     @Nullable
     public String getClass(String from) {
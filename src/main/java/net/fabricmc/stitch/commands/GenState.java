@@ -18,8 +18,10 @@ package net.fabricmc.stitch.commands;
 
 import net.fabricmc.mappings.EntryTriple;
 import net.fabricmc.mappings.MappingsProvider;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Reader;
 import net.fabricmc.stitch.representation.*;
 import net.fabricmc.stitch.util.MatcherUtil;
+import net.fabricmc.stitch.util.ObfuscationPatternMatcher;
 import net.fabricmc.stitch.util.Pair;
 import net.fabricmc.stitch.util.StitchUtil;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -30,35 +32,118 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 class GenState {
+    private static final String COUNTER_PROPERTY_PREFIX = "intermediary-counter-";
+    private static final int FORMAT_BATCH_SIZE = 256;
+
     private final Map<String, Integer> counters = new HashMap<>();
     private final Map<AbstractJarEntry, Integer> values = new IdentityHashMap<>();
     private GenMap oldToIntermediary, newToOld;
     private GenMap newToIntermediary;
+    private GenMap generated;
     private boolean interactive = true;
     private boolean writeAll = false;
+    private boolean streaming = false;
+    private boolean parallel = false;
+    private boolean writeTinyV2 = false;
     private Scanner scanner = new Scanner(System.in);
+    private final MethodConflicts conflicts = new MethodConflicts();
+    private File conflictReport;
+    private Set<String> classFilter;
 
     private String targetNamespace = "net/minecraft/";
     private final List<Pattern> obfuscatedPatterns = new ArrayList<Pattern>();
+    private ObfuscationPatternMatcher obfuscatedMatcher;
 
     public GenState() {
         this.obfuscatedPatterns.add(Pattern.compile("^[^/]*$")); // Default ofbfuscation. Minecraft classes without a package are obfuscated.
     }
 
+    /**
+     * Also writes the methods that are normally left out - constructors, static initializers and
+     * overrides, the latter under the name of the method they override. Since overrides can only be written once
+     * every class has been named, this names all classes before writing any, like {@link #enableParallel()} does,
+     * but only on this thread unless that is enabled too.
+     */
     public void setWriteAll(boolean writeAll) {
         this.writeAll = writeAll;
     }
 
+    /**
+     * Looks up the old names of all classes in parallel before naming them. The output is the same,
+     * only counter allocation and conflict handling still happen one class at a time, in jar order.
+     */
+    public void enableParallel() {
+        parallel = true;
+    }
+
     public void disableInteractive() {
         interactive = false;
     }
 
+    /**
+     * Collects method name conflicts into the given report instead of asking for or failing on
+     * each one. Generation still fails at the end if there were any, but only after all of them
+     * have been written out.
+     */
+    public void setConflictReport(File conflictReport) {
+        this.conflictReport = conflictReport;
+    }
+
+    public void readConflictResolutions(File resolutions) throws IOException {
+        conflicts.readResolutions(resolutions);
+    }
+
+    /**
+     * Releases the naming state of every hierarchy component as soon as all of its classes
+     * have been written, so the whole jar's member names never have to be held at once. The jar
+     * itself is still read completely up front. Can't be
+     * combined with {@link #enableParallel()} or {@link #setWriteAll(boolean)}, which name every
+     * class before writing any of them.
+     */
+    public void enableStreaming() {
+        streaming = true;
+    }
+
+    /**
+     * Only generates mappings for the given top-level classes (and their inner classes). The rest of
+     * the jar is still used to resolve the hierarchy.
+     */
+    public void setClassFilter(Collection<String> topLevelClasses) {
+        this.classFilter = new HashSet<>(topLevelClasses);
+    }
+
+    /**
+     * Loads existing mappings to keep names from, like a target file that already exists would be.
+     */
+    public void prepareExisting(File mappings) throws IOException {
+        newToIntermediary = new GenMap();
+        loadMappings(newToIntermediary, mappings);
+    }
+
+    /**
+     * Keeps every mapping written by {@link #generate} in memory, so it can serve as the old
+     * mappings of a following update without reading the file back.
+     */
+    public void collectMappings() {
+        generated = new GenMap();
+    }
+
+    /**
+     * @return the mappings written by the last {@link #generate} call, official to intermediary. Member
+     * descriptors are kept in the official namespace on both sides.
+     */
+    public GenMap getGeneratedMappings() {
+        return generated;
+    }
+
     public String next(AbstractJarEntry entry, String name) {
         return name + "_" + values.computeIfAbsent(entry, (e) -> {
             int v = counters.getOrDefault(name, 1);
@@ -67,6 +152,10 @@ class GenState {
         });
     }
 
+    public void setWriteTinyV2(boolean writeTinyV2) {
+        this.writeTinyV2 = writeTinyV2;
+    }
+
     public void setTargetNamespace(final String namespace) {
         if (namespace.lastIndexOf("/") != (namespace.length() - 1))
             this.targetNamespace = namespace + "/";
@@ -82,6 +171,10 @@ class GenState {
         this.obfuscatedPatterns.add(Pattern.compile(regex));
     }
 
+    ObfuscationPatternMatcher createObfuscatedMatcher() {
+        return new ObfuscationPatternMatcher(obfuscatedPatterns);
+    }
+
     public void setCounter(String key, int value) {
         counters.put(key, value);
     }
@@ -90,28 +183,114 @@ class GenState {
         return Collections.unmodifiableMap(counters);
     }
 
-    public void generate(File file, JarRootEntry jarEntry, JarRootEntry jarOld) throws IOException {
-        if (file.exists()) {
+    public void generate(File file, JarRootEntry jarEntry, ClassStorage jarOld) throws IOException {
+        if (streaming && (parallel || writeAll)) {
+            throw new IllegalStateException("Streaming can't be combined with parallel lookups or writeAll!");
+        }
+
+        if (newToIntermediary == null && file.exists()) {
             System.err.println("Target file exists - loading...");
             newToIntermediary = new GenMap();
-            try (FileInputStream inputStream = new FileInputStream(file)) {
-                newToIntermediary.load(
-                        MappingsProvider.readTinyMappings(inputStream),
-                        "official",
-                        "intermediary"
-                );
+            loadMappings(newToIntermediary, file);
+        }
+
+        obfuscatedMatcher = createObfuscatedMatcher();
+        methodNames = new String[jarEntry.getMethodGroupCount()];
+
+        HierarchyComponents components = null;
+        int[] pendingClasses = null;
+
+        if (streaming) {
+            components = new HierarchyComponents(jarEntry);
+            pendingClasses = new int[components.size()];
+
+            for (JarClassEntry c : jarEntry.getClasses()) {
+                if (isIncluded(c)) {
+                    pendingClasses[components.getComponentId(c)]++;
+                }
             }
         }
 
-        try (FileWriter fileWriter = new FileWriter(file)) {
-            try (BufferedWriter writer = new BufferedWriter(fileWriter)) {
-                writer.write("v1\tofficial\tintermediary\n");
+        // the target may hold the mappings loaded above, so it is only replaced once the new ones are complete
+        File directory = file.getAbsoluteFile().getParentFile();
+        File bodyFile = File.createTempFile("stitch-" + file.getName(), ".tmp", directory);
+        File outputFile = bodyFile;
+
+        try {
+            try (MappingOutputBuffer writer = new MappingOutputBuffer(new FileOutputStream(bodyFile), MappingOutputBuffer.DEFAULT_CAPACITY)) {
+                if (!writeTinyV2) {
+                    writer.append("v1\tofficial\tintermediary\n");
+                }
+
+                if (parallel || writeAll) {
+                    addClassesInPhases(writer, jarEntry, jarOld);
+                } else {
+                    for (JarClassEntry c : jarEntry.getClasses()) {
+                        if (!isIncluded(c)) {
+                            continue;
+                        }
+
+                        addClass(writer, c, jarOld, jarEntry, this.targetNamespace);
+                        writer.flush();
+
+                        if (components != null) {
+                            int id = components.getComponentId(c);
+                            if (--pendingClasses[id] == 0) {
+                                releaseComponent(components.getClasses(id));
+                            }
+                        }
+                    }
+                }
+
+                if (!writeTinyV2) {
+                    writeCounters(writer);
+                }
+            }
+
+            if (!conflicts.isEmpty()) {
+                conflicts.writeReport(conflictReport);
+                throw new RuntimeException(conflicts.size() + " conflicts detected, written to " + conflictReport);
+            }
+
+            // the tiny v2 header carries the counters, so it can only be written in front of the finished classes
+            if (writeTinyV2) {
+                outputFile = File.createTempFile("stitch-" + file.getName(), ".tmp", directory);
+
+                try (OutputStream out = new FileOutputStream(outputFile)) {
+                    MappingOutputBuffer writer = new MappingOutputBuffer(out, 1024);
+                    writer.append("tiny\t2\t0\tofficial\tintermediary\n");
+                    writeCounters(writer);
+                    writer.flush();
 
-                for (JarClassEntry c : jarEntry.getClasses()) {
-                    addClass(writer, c, jarOld, jarEntry, this.targetNamespace);
+                    Files.copy(bodyFile.toPath(), out);
                 }
+            }
+
+            Files.move(outputFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // whatever failed while writing, no temporary file is left next to the output
+            Files.deleteIfExists(bodyFile.toPath());
+            Files.deleteIfExists(outputFile.toPath());
+        }
+    }
+
+    private boolean isIncluded(JarClassEntry c) {
+        return classFilter == null || classFilter.contains(c.getFullyQualifiedName());
+    }
+
+    private void releaseComponent(List<JarClassEntry> classes) {
+        for (JarClassEntry c : classes) {
+            values.remove(c);
 
-                writeCounters(writer);
+            for (JarFieldEntry f : c.getFields()) {
+                values.remove(f);
+            }
+
+            for (JarMethodEntry m : c.getMethods()) {
+                values.remove(m);
+                if (m.getGroupId() >= 0) {
+                    methodNames[m.getGroupId()] = null;
+                }
             }
         }
     }
@@ -137,44 +316,106 @@ class GenState {
     }
 
     @Nullable
-    private String getFieldName(ClassStorage storage, JarClassEntry c, JarFieldEntry f) {
+    private String getFieldName(ClassStorage storage, JarClassEntry c, JarFieldEntry f, @Nullable ClassLookups lookups) {
         if (!isMappedField(storage, c, f)) {
             return null;
         }
 
+        EntryTriple findEntry = lookups != null ? lookups.fields.get(f) : lookupField(c, f);
+        if (findEntry != null) {
+            if (findEntry.getName().contains("field_")) {
+                return findEntry.getName();
+            } else {
+                String newName = next(f, "field");
+                System.out.println(findEntry.getName() + " is now " + newName);
+                return newName;
+            }
+        }
+
+        return next(f, "field");
+    }
+
+    @Nullable
+    private EntryTriple lookupField(JarClassEntry c, JarFieldEntry f) {
         if (newToIntermediary != null) {
             EntryTriple findEntry = newToIntermediary.getField(c.getFullyQualifiedName(), f.getName(), f.getDescriptor());
             if (findEntry != null) {
-                if (findEntry.getName().contains("field_")) {
-                    return findEntry.getName();
-                } else {
-                    String newName = next(f, "field");
-                    System.out.println(findEntry.getName() + " is now " + newName);
-                    return newName;
-                }
+                return findEntry;
             }
         }
 
         if (newToOld != null) {
             EntryTriple findEntry = newToOld.getField(c.getFullyQualifiedName(), f.getName(), f.getDescriptor());
             if (findEntry != null) {
-                findEntry = oldToIntermediary.getField(findEntry);
-                if (findEntry != null) {
-                    if (findEntry.getName().contains("field_")) {
-                        return findEntry.getName();
-                    } else {
-                        String newName = next(f, "field");
-                        System.out.println(findEntry.getName() + " is now " + newName);
-                        return newName;
-                    }
-                }
+                return oldToIntermediary.getField(findEntry);
             }
         }
 
-        return next(f, "field");
+        return null;
+    }
+
+    // resolved names, indexed by override group id
+    private String[] methodNames = new String[0];
+    // names written for each method entry, only kept with writeAll
+    private final Map<JarMethodEntry, String> methodEntryNames = new IdentityHashMap<>();
+
+    /**
+     * The old names a class and its members map to, looked up before naming so that it can be done
+     * in parallel.
+     */
+    private static class ClassLookups {
+        private String className;
+        private final Map<JarFieldEntry, EntryTriple> fields = new IdentityHashMap<>();
+        // mapped methods only, the lookup is null if there are no old names
+        private final Map<JarMethodEntry, MethodLookup> methods = new IdentityHashMap<>();
+        // unmapped methods that are written under their own name
+        private final Set<JarMethodEntry> sources = StitchUtil.newIdentityHashSet();
+        private final ClassLookups[] innerClasses;
+
+        ClassLookups(JarClassEntry c) {
+            this.innerClasses = new ClassLookups[c.getInnerClasses().size()];
+        }
     }
 
-    private final Map<JarMethodEntry, String> methodNames = new IdentityHashMap<>();
+    private static class MethodLookup {
+        private final Map<String, Set<String>> names = new HashMap<>();
+        private final Set<JarMethodEntry> entries = new HashSet<>();
+    }
+
+    /**
+     * The names a class and its members are written with, in the order of {@link JarClassEntry}'s
+     * collections. A null method name means the method isn't written.
+     */
+    private static class ClassNames {
+        private final JarClassEntry entry;
+        private final String name;
+        private final String[] fieldNames;
+        private final String[] methodNames;
+        private final ClassNames[] innerClasses;
+
+        ClassNames(JarClassEntry entry, String name) {
+            this.entry = entry;
+            this.name = name;
+            this.fieldNames = new String[entry.getFields().size()];
+            this.methodNames = new String[entry.getMethods().size()];
+            this.innerClasses = new ClassNames[entry.getInnerClasses().size()];
+        }
+    }
+
+    @Nullable
+    private String getGroupName(JarMethodEntry m) {
+        int id = m.getGroupId();
+        return id >= 0 && id < methodNames.length ? methodNames[id] : null;
+    }
+
+    private void setGroupNames(Collection<JarMethodEntry> entries, String name) {
+        for (JarMethodEntry mm : entries) {
+            int id = mm.getGroupId();
+            if (id >= 0 && id < methodNames.length) {
+                methodNames[id] = name;
+            }
+        }
+    }
 
     private String getPropagation(ClassStorage storage, JarClassEntry classEntry) {
         if (classEntry == null) {
@@ -218,10 +459,10 @@ class GenState {
         return builder.toString();
     }
 
-    private Set<JarMethodEntry> findNames(ClassStorage storageOld, ClassStorage storageNew, JarClassEntry c, JarMethodEntry m, Map<String, Set<String>> names) {
-        Set<JarMethodEntry> allEntries = new HashSet<>();
-        findNames(storageOld, storageNew, c, m, names, allEntries);
-        return allEntries;
+    private MethodLookup lookupMethod(ClassStorage storageOld, ClassStorage storageNew, JarClassEntry c, JarMethodEntry m) {
+        MethodLookup lookup = new MethodLookup();
+        findNames(storageOld, storageNew, c, m, lookup.names, lookup.entries);
+        return lookup;
     }
 
     private void findNames(ClassStorage storageOld, ClassStorage storageNew, JarClassEntry c, JarMethodEntry m, Map<String, Set<String>> names, Set<JarMethodEntry> usedMethods) {
@@ -280,21 +521,24 @@ class GenState {
     }
 
     @Nullable
-    private String getMethodName(ClassStorage storageOld, ClassStorage storageNew, JarClassEntry c, JarMethodEntry m) {
-        if (!isMappedMethod(storageNew, c, m)) {
+    private String getMethodName(ClassStorage storageOld, ClassStorage storageNew, JarClassEntry c, JarMethodEntry m, @Nullable ClassLookups lookups) {
+        if (lookups != null ? !lookups.methods.containsKey(m) : !isMappedMethod(storageNew, c, m)) {
             return null;
         }
 
-        if (methodNames.containsKey(m)) {
-            return methodNames.get(m);
+        String groupName = getGroupName(m);
+        if (groupName != null) {
+            return groupName;
         }
 
         if (newToOld != null || newToIntermediary != null) {
-            Map<String, Set<String>> names = new HashMap<>();
-            Set<JarMethodEntry> allEntries = findNames(storageOld, storageNew, c, m, names);
+            MethodLookup lookup = lookups != null ? lookups.methods.get(m) : lookupMethod(storageOld, storageNew, c, m);
+            Map<String, Set<String>> names = lookup.names;
+            Set<JarMethodEntry> allEntries = lookup.entries;
             for (JarMethodEntry mm : allEntries) {
-                if (methodNames.containsKey(mm)) {
-                    return methodNames.get(mm);
+                groupName = getGroupName(mm);
+                if (groupName != null) {
+                    return groupName;
                 }
             }
 
@@ -308,6 +552,24 @@ class GenState {
                     System.out.println((i+1) + ") " + s + " <- " + StitchUtil.join(", ", names.get(s)));
                 }
 
+                String resolution = conflicts.getResolution(c.getFullyQualifiedName(), m.getName(), m.getDescriptor());
+                if (resolution != null) {
+                    if (!names.containsKey(resolution)) {
+                        throw new RuntimeException("Conflict resolution " + resolution + " is not one of the candidates!");
+                    }
+
+                    setGroupNames(allEntries, resolution);
+                    System.out.println("Resolved to " + resolution);
+                    return resolution;
+                }
+
+                if (conflictReport != null) {
+                    // carry on with the first candidate so the rest of the run can be checked too
+                    conflicts.addConflict(c.getFullyQualifiedName(), m.getName(), m.getDescriptor(), nameList, names);
+                    setGroupNames(allEntries, nameList.get(0));
+                    return nameList.get(0);
+                }
+
                 if (!interactive) {
                     throw new RuntimeException("Conflict detected!");
                 }
@@ -323,18 +585,14 @@ class GenState {
                     }
 
                     if (i >= 1 && i <= nameList.size()) {
-                        for (JarMethodEntry mm : allEntries) {
-                            methodNames.put(mm, nameList.get(i - 1));
-                        }
+                        setGroupNames(allEntries, nameList.get(i - 1));
                         System.out.println("OK!");
                         return nameList.get(i - 1);
                     }
                 }
             } else if (names.size() == 1) {
                 String s = names.keySet().iterator().next();
-                for (JarMethodEntry mm : allEntries) {
-                    methodNames.put(mm, s);
-                }
+                setGroupNames(allEntries, s);
                 if (s.contains("method_")) {
                     return s;
                 } else {
@@ -348,12 +606,103 @@ class GenState {
         return next(m, "method");
     }
 
-    private void addClass(BufferedWriter writer, JarClassEntry c, ClassStorage storageOld, ClassStorage storage, String translatedPrefix) throws IOException {
+    /**
+     * Looks up all classes, names them in jar order on this thread, and formats them, a batch at a time so only
+     * one batch of formatted classes is held at once. Lookups and formatting run in parallel if that is enabled.
+     */
+    private void addClassesInPhases(MappingOutputBuffer writer, JarRootEntry jarEntry, ClassStorage jarOld) throws IOException {
+        List<JarClassEntry> classes = new ArrayList<>();
+        for (JarClassEntry c : jarEntry.getClasses()) {
+            if (isIncluded(c)) {
+                classes.add(c);
+            }
+        }
+
+        List<ClassLookups> lookups = (parallel ? classes.parallelStream() : classes.stream())
+                .map((c) -> lookupClassTree(c, jarOld, jarEntry))
+                .collect(Collectors.toList());
+
+        List<ClassNames> names = new ArrayList<>(classes.size());
+        for (int i = 0; i < classes.size(); i++) {
+            names.add(nameClass(classes.get(i), lookups.get(i), jarOld, jarEntry, this.targetNamespace));
+        }
+
+        for (ClassNames n : names) {
+            if (writeAll) {
+                completeMethodNames(n);
+            }
+
+            recordGenerated(n);
+        }
+
+        for (int start = 0; start < names.size(); start += FORMAT_BATCH_SIZE) {
+            List<ClassNames> batch = names.subList(start, Math.min(start + FORMAT_BATCH_SIZE, names.size()));
+            List<MappingOutputBuffer> buffers = (parallel ? batch.parallelStream() : batch.stream()).map((n) -> {
+                MappingOutputBuffer buffer = new MappingOutputBuffer(4096);
+                writeClass(buffer, n);
+                return buffer;
+            }).collect(Collectors.toList());
+
+            for (MappingOutputBuffer buffer : buffers) {
+                writer.append(buffer);
+                writer.flush();
+            }
+        }
+    }
+
+    private ClassLookups lookupClassTree(JarClassEntry c, ClassStorage storageOld, ClassStorage storage) {
+        ClassLookups lookups = new ClassLookups(c);
+        lookups.className = lookupClass(c);
+
+        for (JarFieldEntry f : c.getFields()) {
+            if (isMappedField(storage, c, f)) {
+                lookups.fields.put(f, lookupField(c, f));
+            }
+        }
+
+        for (JarMethodEntry m : c.getMethods()) {
+            if (isMappedMethod(storage, c, m)) {
+                lookups.methods.put(m, newToOld != null || newToIntermediary != null ? lookupMethod(storageOld, storage, c, m) : null);
+            } else if (m.isSource(storage, c)) {
+                lookups.sources.add(m);
+            }
+        }
+
+        int i = 0;
+        for (JarClassEntry cc : c.getInnerClasses()) {
+            lookups.innerClasses[i++] = lookupClassTree(cc, storageOld, storage);
+        }
+
+        return lookups;
+    }
+
+    private void completeMethodNames(ClassNames names) {
+        int i = 0;
+        for (JarMethodEntry m : names.entry.getMethods()) {
+            if (names.methodNames[i] == null) {
+                names.methodNames[i] = methodEntryNames.getOrDefault(m, m.getName());
+            }
+
+            i++;
+        }
+
+        for (ClassNames inner : names.innerClasses) {
+            completeMethodNames(inner);
+        }
+    }
+
+    private void addClass(MappingOutputBuffer writer, JarClassEntry c, ClassStorage storageOld, ClassStorage storage, String translatedPrefix) throws IOException {
+        ClassNames names = nameClass(c, null, storageOld, storage, translatedPrefix);
+        recordGenerated(names);
+        writeClass(writer, names);
+    }
+
+    private String getClassName(ClassStorage storage, JarClassEntry c, @Nullable ClassLookups lookups, String translatedPrefix) {
         String className = c.getName();
         String cname = "";
         String prefixSaved = translatedPrefix;
 
-        if(!this.obfuscatedPatterns.stream().anyMatch(p -> p.matcher(className).matches())) {
+        if (!obfuscatedMatcher.matches(className)) {
             translatedPrefix = c.getFullyQualifiedName();
         } else {
             if (!isMappedClass(storage, c)) {
@@ -361,29 +710,12 @@ class GenState {
             } else {
                 cname = null;
 
-                if (newToIntermediary != null) {
-                    String findName = newToIntermediary.getClass(c.getFullyQualifiedName());
-                    if (findName != null) {
-                        String[] r = findName.split("\\$");
-                        cname = r[r.length - 1];
-                        if (r.length == 1) {
-                            translatedPrefix = "";
-                        }
-                    }
-                }
-
-                if (cname == null && newToOld != null) {
-                    String findName = newToOld.getClass(c.getFullyQualifiedName());
-                    if (findName != null) {
-                        findName = oldToIntermediary.getClass(findName);
-                        if (findName != null) {
-                            String[] r = findName.split("\\$");
-                            cname = r[r.length - 1];
-                            if (r.length == 1) {
-                                translatedPrefix = "";
-                            }
-
-                        }
+                String findName = lookups != null ? lookups.className : lookupClass(c);
+                if (findName != null) {
+                    String[] r = findName.split("\\$");
+                    cname = r[r.length - 1];
+                    if (r.length == 1) {
+                        translatedPrefix = "";
                     }
                 }
 
@@ -400,40 +732,128 @@ class GenState {
             }
         }
 
-        writer.write("CLASS\t" + c.getFullyQualifiedName() + "\t" + translatedPrefix + cname + "\n");
+        return translatedPrefix + cname;
+    }
 
-        for (JarFieldEntry f : c.getFields()) {
-            String fName = getFieldName(storage, c, f);
-            if (fName == null) {
-                fName = f.getName();
+    @Nullable
+    private String lookupClass(JarClassEntry c) {
+        if (newToIntermediary != null) {
+            String findName = newToIntermediary.getClass(c.getFullyQualifiedName());
+            if (findName != null) {
+                return findName;
             }
+        }
 
-            if (fName != null) {
-                writer.write("FIELD\t" + c.getFullyQualifiedName()
-                        + "\t" + f.getDescriptor()
-                        + "\t" + f.getName()
-                        + "\t" + fName + "\n");
+        if (newToOld != null) {
+            String findName = newToOld.getClass(c.getFullyQualifiedName());
+            if (findName != null) {
+                return oldToIntermediary.getClass(findName);
             }
         }
 
+        return null;
+    }
+
+    /**
+     * Picks the names of a class and its members, and then those of its inner classes. Counter values
+     * are handed out in exactly this order, so it must run in jar order and on one thread only.
+     */
+    private ClassNames nameClass(JarClassEntry c, @Nullable ClassLookups lookups, ClassStorage storageOld, ClassStorage storage, String translatedPrefix) {
+        ClassNames names = new ClassNames(c, getClassName(storage, c, lookups, translatedPrefix));
+
+        int i = 0;
+        for (JarFieldEntry f : c.getFields()) {
+            String fName = getFieldName(storage, c, f, lookups);
+            names.fieldNames[i++] = fName != null ? fName : f.getName();
+        }
+
+        i = 0;
         for (JarMethodEntry m : c.getMethods()) {
-            String mName = getMethodName(storageOld, storage, c, m);
+            String mName = getMethodName(storageOld, storage, c, m, lookups);
             if (mName == null) {
-                if (!m.getName().startsWith("<") && m.isSource(storage, c)) {
+                if (!m.getName().startsWith("<") && (lookups != null ? lookups.sources.contains(m) : m.isSource(storage, c))) {
                    mName = m.getName();
                 }
+            } else if (writeAll) {
+                methodEntryNames.put(m, mName);
             }
 
+            names.methodNames[i++] = mName;
+        }
+
+        i = 0;
+        for (JarClassEntry cc : c.getInnerClasses()) {
+            names.innerClasses[i] = nameClass(cc, lookups != null ? lookups.innerClasses[i] : null, storageOld, storage, names.name + "$");
+            i++;
+        }
+
+        return names;
+    }
+
+    private void recordGenerated(ClassNames names) {
+        if (generated == null) {
+            return;
+        }
+
+        JarClassEntry c = names.entry;
+        generated.addClass(c.getFullyQualifiedName(), names.name);
+
+        int i = 0;
+        for (JarFieldEntry f : c.getFields()) {
+            generated.addField(new EntryTriple(c.getFullyQualifiedName(), f.getName(), f.getDescriptor()),
+                    new EntryTriple(names.name, names.fieldNames[i++], f.getDescriptor()));
+        }
+
+        i = 0;
+        for (JarMethodEntry m : c.getMethods()) {
+            String mName = names.methodNames[i++];
             if (mName != null) {
-                writer.write("METHOD\t" + c.getFullyQualifiedName()
-                        + "\t" + m.getDescriptor()
-                        + "\t" + m.getName()
-                        + "\t" + mName + "\n");
+                generated.addMethod(new EntryTriple(c.getFullyQualifiedName(), m.getName(), m.getDescriptor()),
+                        new EntryTriple(names.name, mName, m.getDescriptor()));
             }
         }
 
-        for (JarClassEntry cc : c.getInnerClasses()) {
-            addClass(writer, cc, storageOld, storage, translatedPrefix + cname + "$");
+        for (ClassNames inner : names.innerClasses) {
+            recordGenerated(inner);
+        }
+    }
+
+    private void writeClass(MappingOutputBuffer writer, ClassNames names) {
+        JarClassEntry c = names.entry;
+        writer.append(writeTinyV2 ? "c\t" : "CLASS\t").append(c.getFullyQualifiedName())
+                .append('\t').append(names.name).append('\n');
+
+        int i = 0;
+        for (JarFieldEntry f : c.getFields()) {
+            if (writeTinyV2) {
+                writer.append("\tf");
+            } else {
+                writer.append("FIELD\t").append(c.getFullyQualifiedName());
+            }
+
+            writer.append('\t').append(f.getDescriptor())
+                    .append('\t').append(f.getName())
+                    .append('\t').append(names.fieldNames[i++]).append('\n');
+        }
+
+        i = 0;
+        for (JarMethodEntry m : c.getMethods()) {
+            String mName = names.methodNames[i++];
+            if (mName != null) {
+                if (writeTinyV2) {
+                    writer.append("\tm");
+                } else {
+                    writer.append("METHOD\t").append(c.getFullyQualifiedName());
+                }
+
+                writer.append('\t').append(m.getDescriptor())
+                        .append('\t').append(m.getName())
+                        .append('\t').append(mName).append('\n');
+            }
+        }
+
+        for (ClassNames inner : names.innerClasses) {
+            writeClass(writer, inner);
         }
     }
 
@@ -441,15 +861,25 @@ class GenState {
         oldToIntermediary = new GenMap();
         newToOld = new GenMap.Dummy();
 
-        // TODO: only read once
-        readCounters(oldMappings);
+        if (!readHeader(oldMappings).startsWith("v1\tofficial\t")) {
+            readCounters(oldMappings);
+            loadMappings(oldToIntermediary, oldMappings);
+            return;
+        }
 
-        try (FileInputStream inputStream = new FileInputStream(oldMappings)) {
-            oldToIntermediary.load(
-                    MappingsProvider.readTinyMappings(inputStream),
-                    "official",
-                    "intermediary"
-            );
+        // tiny v1 with official names first can be read in one pass, counters included
+        Path counterPath = getExternalCounterFile();
+        boolean externalCounters = counterPath != null && Files.exists(counterPath);
+        if (externalCounters) {
+            readCounters(oldMappings);
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(oldMappings.toPath(), StandardCharsets.UTF_8)) {
+            oldToIntermediary.loadTinyV1(reader, "official", "intermediary", (line) -> {
+                if (!externalCounters) {
+                    readCounter(line);
+                }
+            });
         }
     }
 
@@ -460,14 +890,23 @@ class GenState {
         // TODO: only read once
         readCounters(oldMappings);
 
-        try (FileInputStream inputStream = new FileInputStream(oldMappings)) {
-            oldToIntermediary.load(
-                    MappingsProvider.readTinyMappings(inputStream),
-                    "official",
-                    "intermediary"
-            );
-        }
+        loadMappings(oldToIntermediary, oldMappings);
+        readMatches(matches);
+    }
+
+    /**
+     * Prepares an update from old mappings that are already in memory, such as the
+     * {@link #getGeneratedMappings() generated mappings} of a previous step.
+     */
+    public void prepareUpdate(GenMap oldMappings, Map<String, Integer> oldCounters, File matches) throws IOException {
+        oldToIntermediary = oldMappings;
+        newToOld = new GenMap();
+        counters.putAll(oldCounters);
 
+        readMatches(matches);
+    }
+
+    private void readMatches(File matches) throws IOException {
         try (FileReader fileReader = new FileReader(matches)) {
             try (BufferedReader reader = new BufferedReader(fileReader)) {
                 MatcherUtil.read(reader, true, newToOld::addClass, newToOld::addField, newToOld::addMethod);
@@ -475,7 +914,36 @@ class GenState {
         }
     }
 
-    private void readCounters(File counterFile) throws IOException {
+    private static void loadMappings(GenMap map, File file) throws IOException {
+        loadMappings(map, file, "official", "intermediary");
+    }
+
+    static void loadMappings(GenMap map, File file, String from, String to) throws IOException {
+        if (isTinyV2(file)) {
+            map.load(TinyV2Reader.read(file.toPath()), from, to);
+        } else {
+            try (FileInputStream inputStream = new FileInputStream(file)) {
+                map.load(
+                        MappingsProvider.readTinyMappings(inputStream),
+                        from,
+                        to
+                );
+            }
+        }
+    }
+
+    private static boolean isTinyV2(File file) throws IOException {
+        return readHeader(file).startsWith("tiny\t2\t");
+    }
+
+    private static String readHeader(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            return header != null ? header : "";
+        }
+    }
+
+    void readCounters(File counterFile) throws IOException {
         Path counterPath = getExternalCounterFile();
 
         if (counterPath != null && Files.exists(counterPath)) {
@@ -486,23 +954,38 @@ class GenState {
             try (BufferedReader reader = new BufferedReader(fileReader)) {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    if (line.startsWith("# INTERMEDIARY-COUNTER")) {
-                        String[] parts = line.split(" ");
-                        counters.put(parts[2], Integer.parseInt(parts[3]));
-                    }
+                    readCounter(line);
                 }
             }
         }
     }
 
-    private void writeCounters(BufferedWriter writer) throws IOException {
+    private void readCounter(String line) {
+        if (line.startsWith("# INTERMEDIARY-COUNTER")) {
+            String[] parts = line.split(" ");
+            counters.put(parts[2], Integer.parseInt(parts[3]));
+        } else if (line.startsWith("\t" + COUNTER_PROPERTY_PREFIX)) {
+            String[] parts = line.substring(1).split("\t");
+            counters.put(parts[0].substring(COUNTER_PROPERTY_PREFIX.length()), Integer.parseInt(parts[1]));
+        }
+    }
+
+    void writeCounters(MappingOutputBuffer writer) throws IOException {
         StringJoiner counterLines = new StringJoiner("\n");
 
         for (Map.Entry<String, Integer> counter : counters.entrySet()) {
             counterLines.add("# INTERMEDIARY-COUNTER " + counter.getKey() + " " + counter.getValue());
         }
 
-        writer.write(counterLines.toString());
+        if (writeTinyV2) {
+            for (Map.Entry<String, Integer> counter : counters.entrySet()) {
+                writer.append('\t').append(COUNTER_PROPERTY_PREFIX).append(counter.getKey())
+                        .append('\t').append(counter.getValue()).append('\n');
+            }
+        } else {
+            writer.append(counterLines.toString());
+        }
+
         Path counterPath = getExternalCounterFile();
 
         if (counterPath != null) {
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.representation.*;
+import net.fabricmc.stitch.util.ObfuscationPatternMatcher;
+import net.fabricmc.stitch.util.StitchUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * The share of a jar one worker of a sharded intermediary run generates: a list of top-level
+ * classes, always covering whole hierarchy components, and a counter range per kind that no other
+ * shard allocates from.
+ */
+class IntermediaryShardPlan {
+    static final String[] COUNTER_KINDS = { "class", "field", "method" };
+
+    private final List<String> classes = new ArrayList<>();
+    private final Map<String, int[]> ranges = new HashMap<>();
+
+    private int weight;
+
+    public List<String> getClasses() {
+        return Collections.unmodifiableList(classes);
+    }
+
+    public int getStart(String kind) {
+        return ranges.get(kind)[0];
+    }
+
+    public int getEnd(String kind) {
+        return ranges.get(kind)[1];
+    }
+
+    public boolean isEmpty() {
+        return classes.isEmpty();
+    }
+
+    /**
+     * Splits the jar into at most the given number of shards. Components are handed out largest
+     * first to the least loaded shard, and each shard reserves as many counter values as it could
+     * possibly need - one per class, field and method of its components that {@link GenState} would
+     * allocate a name for.
+     */
+    public static List<IntermediaryShardPlan> partition(JarRootEntry jar, int shardCount, Map<String, Integer> counters, ObfuscationPatternMatcher obfuscated) {
+        HierarchyComponents components = new HierarchyComponents(jar);
+        int[][] sizes = new int[components.size()][];
+        Integer[] order = new Integer[components.size()];
+
+        for (int i = 0; i < components.size(); i++) {
+            sizes[i] = countEntries(jar, components.getClasses(i), obfuscated);
+            order[i] = i;
+        }
+
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> -(sizes[i][0] + sizes[i][1] + sizes[i][2])).thenComparingInt(i -> i));
+
+        List<IntermediaryShardPlan> plans = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            plans.add(new IntermediaryShardPlan());
+        }
+
+        int[] owners = new int[components.size()];
+        int[][] bounds = new int[shardCount][COUNTER_KINDS.length];
+
+        for (int id : order) {
+            int owner = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (plans.get(i).weight < plans.get(owner).weight) {
+                    owner = i;
+                }
+            }
+
+            owners[id] = owner;
+            for (int k = 0; k < COUNTER_KINDS.length; k++) {
+                bounds[owner][k] += sizes[id][k];
+                plans.get(owner).weight += sizes[id][k];
+            }
+        }
+
+        // keep every shard's classes in jar order, so their outputs can be merged in one pass
+        for (JarClassEntry c : jar.getClasses()) {
+            plans.get(owners[components.getComponentId(c)]).classes.add(c.getFullyQualifiedName());
+        }
+
+        for (int k = 0; k < COUNTER_KINDS.length; k++) {
+            int next = counters.getOrDefault(COUNTER_KINDS[k], 1);
+
+            for (int i = 0; i < shardCount; i++) {
+                plans.get(i).ranges.put(COUNTER_KINDS[k], new int[] { next, next + bounds[i][k] });
+                next += bounds[i][k];
+            }
+        }
+
+        return plans;
+    }
+
+    private static int[] countEntries(JarRootEntry jar, List<JarClassEntry> classes, ObfuscationPatternMatcher obfuscated) {
+        Set<JarMethodEntry> methods = StitchUtil.newIdentityHashSet();
+        int classCount = 0;
+        int fields = 0;
+
+        for (JarClassEntry c : classes) {
+            if (obfuscated.matches(c.getName()) && GenState.isMappedClass(jar, c)) {
+                classCount++;
+            }
+
+            for (JarFieldEntry f : c.getFields()) {
+                if (GenState.isMappedField(jar, c, f)) {
+                    fields++;
+                }
+            }
+
+            for (JarMethodEntry m : c.getMethods()) {
+                if (GenState.isMappedMethod(jar, c, m)) {
+                    methods.add(m);
+                }
+            }
+        }
+
+        return new int[] { classCount, fields, methods.size() };
+    }
+
+    public void write(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (String kind : COUNTER_KINDS) {
+                writer.write("counter\t" + kind + "\t" + getStart(kind) + "\t" + getEnd(kind) + "\n");
+            }
+
+            for (String c : classes) {
+                writer.write("class\t" + c + "\n");
+            }
+        }
+    }
+
+    public static IntermediaryShardPlan read(File file) throws IOException {
+        IntermediaryShardPlan plan = new IntermediaryShardPlan();
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+
+                if (parts[0].equals("counter") && parts.length == 4) {
+                    plan.ranges.put(parts[1], new int[] { Integer.parseInt(parts[2]), Integer.parseInt(parts[3]) });
+                } else if (parts[0].equals("class") && parts.length == 2) {
+                    plan.classes.add(parts[1]);
+                } else if (!line.isEmpty()) {
+                    throw new IOException("Invalid shard plan line: " + line);
+                }
+            }
+        }
+
+        for (String kind : COUNTER_KINDS) {
+            if (!plan.ranges.containsKey(kind)) {
+                throw new IOException("Shard plan " + file + " has no " + kind + " counter range!");
+            }
+        }
+
+        return plan;
+    }
+}
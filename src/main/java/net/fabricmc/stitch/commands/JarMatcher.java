@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.representation.*;
+import net.fabricmc.stitch.util.ObfuscationPatternMatcher;
+import net.fabricmc.stitch.util.StitchUtil;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarInputStream;
+import java.util.stream.IntStream;
+
+/**
+ * Matches the classes and members of two versions of a jar by structural fingerprints.
+ *
+ * <p>Classes that aren't obfuscated are matched by name. Every other class is fingerprinted from
+ * its access flags, its place in the hierarchy, its member shapes and its normalized bytecode, in
+ * which obfuscated names are replaced by their match if there is one or a placeholder if not.
+ * Fingerprints found exactly once in each jar are matched, and since every new match sharpens the
+ * fingerprints of the classes referring to it, this repeats until nothing changes. Members are then
+ * matched the same way inside each pair of matched classes. Ambiguous candidates are never matched.
+ */
+class JarMatcher {
+    private static final String UNKNOWN = "?";
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private final Side oldSide, newSide;
+    private final ObfuscationPatternMatcher obfuscated;
+    private final Map<String, String> classMatches = new ConcurrentHashMap<>();
+    private final Set<String> matchedNew = ConcurrentHashMap.newKeySet();
+    private final Map<String, Map<String, String>> fieldMatches = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> methodMatches = new ConcurrentHashMap<>();
+
+    public JarMatcher(File oldJar, File newJar, ObfuscationPatternMatcher obfuscated) throws IOException {
+        this.obfuscated = obfuscated;
+        this.oldSide = new Side(oldJar, true);
+        this.newSide = new Side(newJar, false);
+    }
+
+    public void match() {
+        for (String name : oldSide.nodes.keySet()) {
+            if (!obfuscated.matches(name) && newSide.nodes.containsKey(name)) {
+                addClassMatch(name, name);
+            }
+        }
+
+        System.err.println("Matched " + classMatches.size() + " classes by name.");
+
+        int round = 0;
+        int matched;
+
+        do {
+            Map<String, String> oldPrints = oldSide.fingerprintClasses();
+            Map<String, String> newPrints = newSide.fingerprintClasses();
+            matched = 0;
+
+            for (Map.Entry<String, String> entry : uniqueMatches(oldPrints, newPrints).entrySet()) {
+                addClassMatch(entry.getKey(), entry.getValue());
+                matched++;
+            }
+
+            System.err.println("Round " + (++round) + ": matched " + matched + " classes.");
+        } while (matched > 0);
+
+        classMatches.keySet().parallelStream().forEach(this::matchMembers);
+    }
+
+    private void addClassMatch(String oldName, String newName) {
+        classMatches.put(oldName, newName);
+        matchedNew.add(newName);
+    }
+
+    private void matchMembers(String oldName) {
+        ClassNode oldNode = oldSide.nodes.get(oldName);
+        ClassNode newNode = newSide.nodes.get(classMatches.get(oldName));
+
+        Map<String, String> oldFields = new HashMap<>();
+        Map<String, String> newFields = new HashMap<>();
+
+        for (FieldNode f : oldNode.fields) {
+            oldFields.put(f.name + ";;" + f.desc, oldSide.getMemberKey(f));
+        }
+
+        for (FieldNode f : newNode.fields) {
+            newFields.put(f.name + ";;" + f.desc, newSide.getMemberKey(f));
+        }
+
+        Map<String, String> oldMethods = new HashMap<>();
+        Map<String, String> newMethods = new HashMap<>();
+
+        for (MethodNode m : oldNode.methods) {
+            oldMethods.put(m.name + m.desc, oldSide.getMemberKey(m));
+        }
+
+        for (MethodNode m : newNode.methods) {
+            newMethods.put(m.name + m.desc, newSide.getMemberKey(m));
+        }
+
+        Map<String, String> fields = uniqueMatches(oldFields, newFields);
+        Map<String, String> methods = uniqueMatches(oldMethods, newMethods);
+
+        if (!fields.isEmpty()) {
+            fieldMatches.put(oldName, fields);
+        }
+
+        if (!methods.isEmpty()) {
+            methodMatches.put(oldName, methods);
+        }
+    }
+
+    /**
+     * @return the old keys whose value occurs exactly once on each side, mapped to the new key with the same value
+     */
+    private static Map<String, String> uniqueMatches(Map<String, String> oldPrints, Map<String, String> newPrints) {
+        Map<String, List<String>> oldByPrint = groupByValue(oldPrints);
+        Map<String, List<String>> newByPrint = groupByValue(newPrints);
+        Map<String, String> matches = new TreeMap<>();
+
+        for (Map.Entry<String, List<String>> entry : oldByPrint.entrySet()) {
+            List<String> candidates = newByPrint.get(entry.getKey());
+
+            if (entry.getValue().size() == 1 && candidates != null && candidates.size() == 1) {
+                matches.put(entry.getValue().get(0), candidates.get(0));
+            }
+        }
+
+        return matches;
+    }
+
+    private static Map<String, List<String>> groupByValue(Map<String, String> map) {
+        Map<String, List<String>> groups = new HashMap<>();
+
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            groups.computeIfAbsent(entry.getValue(), (s) -> new ArrayList<>(1)).add(entry.getKey());
+        }
+
+        return groups;
+    }
+
+    public int getClassMatchCount() {
+        return classMatches.size();
+    }
+
+    /**
+     * Writes the matches in the format read by {@link net.fabricmc.stitch.util.MatcherUtil}, old names first.
+     */
+    public void write(File file) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String> c : new TreeMap<>(classMatches).entrySet()) {
+                writer.write("c\tL" + c.getKey() + ";\tL" + c.getValue() + ";\n");
+
+                for (Map.Entry<String, String> f : fieldMatches.getOrDefault(c.getKey(), Collections.emptyMap()).entrySet()) {
+                    writer.write("\tf\t" + f.getKey() + "\t" + f.getValue() + "\n");
+                }
+
+                for (Map.Entry<String, String> m : methodMatches.getOrDefault(c.getKey(), Collections.emptyMap()).entrySet()) {
+                    writer.write("\tm\t" + m.getKey() + "\t" + m.getValue() + "\n");
+                }
+            }
+        }
+    }
+
+    private class Side {
+        private final boolean old;
+        private final Map<String, ClassNode> nodes = new HashMap<>();
+        private final JarRootEntry jar;
+        private final HierarchyComponents components;
+        private final Remapper normalizer = new Remapper() {
+            @Override
+            public String map(String internalName) {
+                return normalize(internalName);
+            }
+        };
+
+        Side(File file, boolean old) throws IOException {
+            this.old = old;
+
+            try (JarInputStream jarStream = new JarInputStream(new FileInputStream(file))) {
+                java.util.jar.JarEntry entry;
+
+                while ((entry = jarStream.getNextJarEntry()) != null) {
+                    if (!entry.getName().endsWith(".class")) {
+                        continue;
+                    }
+
+                    ClassNode node = new ClassNode(StitchUtil.ASM_VERSION);
+                    new ClassReader(jarStream).accept(node, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                    nodes.put(node.name, node);
+                }
+            }
+
+            jar = new JarRootEntry(file);
+            JarReader.Builder.create(jar).joinMethodEntries(false).build().apply();
+            components = new HierarchyComponents(jar);
+        }
+
+        /**
+         * @return the name of a class as far as fingerprints are concerned: its match if it is an
+         * obfuscated class of this jar, so both sides agree on it, and the class name otherwise
+         */
+        String normalize(String name) {
+            if (!nodes.containsKey(name) || !obfuscated.matches(name)) {
+                return name;
+            }
+
+            if (old) {
+                String match = classMatches.get(name);
+                return match != null ? match : UNKNOWN;
+            } else {
+                return matchedNew.contains(name) ? name : UNKNOWN;
+            }
+        }
+
+        String normalizeMember(String owner, String name, boolean unmapped) {
+            return unmapped && nodes.containsKey(owner) ? UNKNOWN : name;
+        }
+
+        // members with real names keep them across versions, the rest can only be told apart by their contents
+        String getMemberKey(FieldNode f) {
+            return GenState.isUnmappedFieldName(f.name) ? fingerprint(f) : f.name + ";;" + normalizer.mapDesc(f.desc);
+        }
+
+        String getMemberKey(MethodNode m) {
+            return GenState.isUnmappedMethodName(m.name) ? fingerprint(m) : m.name + normalizer.mapMethodDesc(m.desc);
+        }
+
+        /**
+         * Fingerprints all unmatched obfuscated classes, one hierarchy component per task.
+         */
+        Map<String, String> fingerprintClasses() {
+            Map<String, String> prints = new ConcurrentHashMap<>();
+
+            IntStream.range(0, components.size()).parallel().forEach((id) -> {
+                for (JarClassEntry c : components.getClasses(id)) {
+                    String name = c.getFullyQualifiedName();
+                    ClassNode node = nodes.get(name);
+
+                    if (node != null && obfuscated.matches(name) && (old ? !classMatches.containsKey(name) : !matchedNew.contains(name))) {
+                        prints.put(name, fingerprint(c, node));
+                    }
+                }
+            });
+
+            return prints;
+        }
+
+        String fingerprint(JarClassEntry c, ClassNode node) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(node.access & ~Opcodes.ACC_SUPER).append('|');
+            builder.append(node.superName != null ? normalize(node.superName) : "").append('|');
+
+            List<String> interfaces = new ArrayList<>();
+            for (String itf : node.interfaces) {
+                interfaces.add(normalize(itf));
+            }
+
+            Collections.sort(interfaces);
+            builder.append(interfaces).append('|');
+
+            // hierarchy position
+            int depth = 0;
+            for (JarClassEntry s = c.getSuperClass(jar); s != null; s = s.getSuperClass(jar)) {
+                depth++;
+            }
+
+            builder.append(depth).append('|');
+            builder.append(c.getSubclassNames().size()).append('|').append(c.getImplementerNames().size()).append('|');
+            builder.append(node.outerClass != null ? normalize(node.outerClass) : "").append('|');
+
+            int lastSeparator = c.getFullyQualifiedName().lastIndexOf('$');
+            builder.append(lastSeparator >= 0 ? normalize(c.getFullyQualifiedName().substring(0, lastSeparator)) : "").append('|');
+
+            List<String> members = new ArrayList<>();
+            for (FieldNode f : node.fields) {
+                members.add(normalizeMember(node.name, f.name, GenState.isUnmappedFieldName(f.name)) + fingerprint(f));
+            }
+
+            for (MethodNode m : node.methods) {
+                members.add(normalizeMember(node.name, m.name, GenState.isUnmappedMethodName(m.name)) + fingerprint(m));
+            }
+
+            Collections.sort(members);
+            builder.append(members);
+
+            return hash(builder);
+        }
+
+        String fingerprint(FieldNode f) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(f.access).append('|').append(normalizer.mapDesc(f.desc)).append('|').append(f.value);
+            return hash(builder);
+        }
+
+        String fingerprint(MethodNode m) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(m.access).append('|').append(normalizer.mapMethodDesc(m.desc)).append('|');
+
+            for (AbstractInsnNode insn : m.instructions) {
+                if (insn.getOpcode() < 0) {
+                    // labels, line numbers and frames
+                    continue;
+                }
+
+                builder.append(insn.getOpcode());
+
+                if (insn instanceof FieldInsnNode) {
+                    FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                    builder.append(normalize(fieldInsn.owner)).append('.')
+                            .append(normalizeMember(fieldInsn.owner, fieldInsn.name, GenState.isUnmappedFieldName(fieldInsn.name)))
+                            .append(normalizer.mapDesc(fieldInsn.desc));
+                } else if (insn instanceof MethodInsnNode) {
+                    MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                    builder.append(normalizer.mapType(methodInsn.owner)).append('.')
+                            .append(normalizeMember(methodInsn.owner, methodInsn.name, GenState.isUnmappedMethodName(methodInsn.name)))
+                            .append(normalizer.mapMethodDesc(methodInsn.desc));
+                } else if (insn instanceof TypeInsnNode) {
+                    builder.append(normalizer.mapType(((TypeInsnNode) insn).desc));
+                } else if (insn instanceof MultiANewArrayInsnNode) {
+                    builder.append(normalizer.mapDesc(((MultiANewArrayInsnNode) insn).desc));
+                } else if (insn instanceof LdcInsnNode) {
+                    appendConstant(builder, ((LdcInsnNode) insn).cst);
+                } else if (insn instanceof IntInsnNode) {
+                    builder.append(((IntInsnNode) insn).operand);
+                } else if (insn instanceof VarInsnNode) {
+                    builder.append(((VarInsnNode) insn).var);
+                } else if (insn instanceof IincInsnNode) {
+                    builder.append(((IincInsnNode) insn).var).append(',').append(((IincInsnNode) insn).incr);
+                } else if (insn instanceof InvokeDynamicInsnNode) {
+                    InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+                    builder.append(indy.name).append(normalizer.mapMethodDesc(indy.desc));
+                    appendConstant(builder, indy.bsm);
+
+                    for (Object arg : indy.bsmArgs) {
+                        appendConstant(builder, arg);
+                    }
+                }
+
+                builder.append(';');
+            }
+
+            return hash(builder);
+        }
+
+        private void appendConstant(StringBuilder builder, Object cst) {
+            if (cst instanceof Type) {
+                Type type = (Type) cst;
+                builder.append(type.getSort() == Type.METHOD ? normalizer.mapMethodDesc(type.getDescriptor()) : normalizer.mapDesc(type.getDescriptor()));
+            } else if (cst instanceof Handle) {
+                Handle handle = (Handle) cst;
+                builder.append(handle.getTag()).append(normalize(handle.getOwner())).append('.')
+                        .append(normalizeMember(handle.getOwner(), handle.getName(), GenState.isUnmappedMethodName(handle.getName())))
+                        .append(normalizer.mapMethodDesc(handle.getDesc()));
+            } else {
+                builder.append(cst);
+            }
+
+            builder.append(',');
+        }
+    }
+
+    private static String hash(CharSequence s) {
+        // digest() resets the instance, so each thread can keep reusing its own
+        byte[] digest = SHA1.get().digest(s.toString().getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.mappings.EntryTriple;
+import net.fabricmc.stitch.representation.*;
+import net.fabricmc.stitch.util.StitchUtil;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.MethodRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Remaps a jar through a {@link GenMap}. Member references are resolved against the class
+ * hierarchy of the jar, so a call to an inherited method through a subclass is renamed just like
+ * a call on the class declaring it. Classes are transformed on a thread pool and written to the
+ * output jar in their original order as soon as they are done.
+ */
+class JarRemapper {
+    private static final String LAMBDA_METAFACTORY = "java/lang/invoke/LambdaMetafactory";
+
+    private final JarRootEntry jar;
+    private final GenMap map;
+    private final MappingRemapper remapper = new MappingRemapper();
+
+    public JarRemapper(JarRootEntry jar, GenMap map) {
+        this.jar = jar;
+        this.map = map;
+    }
+
+    public Remapper getRemapper() {
+        return remapper;
+    }
+
+    public void remap(File input, File output) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        // bounds the number of transformed entries waiting to be written
+        int window = threads * 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (ZipFile zip = new ZipFile(input);
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            Deque<Future<Entry>> pending = new ArrayDeque<>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+
+                if (isSignature(entry.getName())) {
+                    continue;
+                }
+
+                pending.add(executor.submit(() -> transform(zip, entry)));
+
+                if (pending.size() >= window) {
+                    write(out, pending.poll());
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                write(out, pending.poll());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean isSignature(String name) {
+        // remapped classes would no longer match the signatures
+        return name.startsWith("META-INF/") && (name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC"));
+    }
+
+    private Entry transform(ZipFile zip, ZipEntry entry) throws IOException {
+        if (entry.isDirectory()) {
+            return new Entry(entry, entry.getName(), null);
+        }
+
+        byte[] data;
+        try (InputStream stream = zip.getInputStream(entry)) {
+            data = readAll(stream);
+        }
+
+        if (!entry.getName().endsWith(".class")) {
+            return new Entry(entry, entry.getName(), data);
+        }
+
+        ClassReader reader = new ClassReader(data);
+        ClassWriter writer = new ClassWriter(0);
+        reader.accept(new LambdaClassRemapper(writer), 0);
+
+        // keeps the prefix of multi-release entries such as META-INF/versions/9/
+        String className = reader.getClassName();
+        String prefix = entry.getName().endsWith(className + ".class") ? entry.getName().substring(0, entry.getName().length() - className.length() - 6) : "";
+        return new Entry(entry, prefix + remapper.map(className) + ".class", writer.toByteArray());
+    }
+
+    private static void write(ZipOutputStream out, Future<Entry> future) throws IOException {
+        Entry entry;
+
+        try {
+            entry = future.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to remap entry", e.getCause());
+        }
+
+        ZipEntry outEntry = new ZipEntry(entry.name);
+        outEntry.setTime(entry.source.getTime());
+        out.putNextEntry(outEntry);
+
+        if (entry.data != null) {
+            out.write(entry.data);
+        }
+
+        out.closeEntry();
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int len;
+
+        while ((len = stream.read(chunk)) > 0) {
+            buffer.write(chunk, 0, len);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    private static class Entry {
+        private final ZipEntry source;
+        private final String name;
+        private final byte[] data;
+
+        private Entry(ZipEntry source, String name, byte[] data) {
+            this.source = source;
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Renames lambda call sites by the interface method they implement. Only the bootstrap arguments name
+     * its descriptor, and {@link Remapper#mapInvokeDynamicMethodName} doesn't get to see them.
+     */
+    private class LambdaClassRemapper extends ClassRemapper {
+        private LambdaClassRemapper(ClassVisitor visitor) {
+            super(StitchUtil.ASM_VERSION, visitor, JarRemapper.this.remapper);
+        }
+
+        @Override
+        protected MethodVisitor createMethodRemapper(MethodVisitor visitor) {
+            return new MethodRemapper(api, visitor, remapper) {
+                @Override
+                public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                    if (bootstrapMethodHandle.getOwner().equals(LAMBDA_METAFACTORY) && bootstrapMethodArguments.length > 0
+                            && bootstrapMethodArguments[0] instanceof Type) {
+                        name = JarRemapper.this.remapper.mapLambdaName(name, descriptor, ((Type) bootstrapMethodArguments[0]).getDescriptor());
+                    }
+
+                    super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+                }
+            };
+        }
+    }
+
+    private class MappingRemapper extends Remapper {
+        private final Map<EntryTriple, String> fieldNames = new ConcurrentHashMap<>();
+        private final Map<EntryTriple, String> methodNames = new ConcurrentHashMap<>();
+
+        @Override
+        public String map(String internalName) {
+            String name = map.getClass(internalName);
+            return name != null ? name : internalName;
+        }
+
+        @Override
+        public String mapFieldName(String owner, String name, String descriptor) {
+            return fieldNames.computeIfAbsent(new EntryTriple(owner, name, descriptor), (e) -> {
+                String mapped = resolveField(owner, name, descriptor, false, new HashSet<>());
+                return mapped != null ? mapped : name;
+            });
+        }
+
+        @Override
+        public String mapRecordComponentName(String owner, String name, String descriptor) {
+            return mapFieldName(owner, name, descriptor);
+        }
+
+        @Override
+        public String mapMethodName(String owner, String name, String descriptor) {
+            if (name.startsWith("<") || owner.startsWith("[")) {
+                return name;
+            }
+
+            return methodNames.computeIfAbsent(new EntryTriple(owner, name, descriptor), (e) -> {
+                String mapped = resolveMethod(owner, name, descriptor, false, new HashSet<>());
+                return mapped != null ? mapped : name;
+            });
+        }
+
+        /**
+         * Maps the name of a lambda, which is the name of the single abstract method of the interface it returns.
+         *
+         * @param descriptor the descriptor of the call site
+         * @param methodDescriptor the erased descriptor of the implemented method, from the bootstrap arguments
+         */
+        private String mapLambdaName(String name, String descriptor, String methodDescriptor) {
+            Type returnType = Type.getReturnType(descriptor);
+            if (returnType.getSort() != Type.OBJECT) {
+                return name;
+            }
+
+            JarMethodEntry method = findAbstractMethod(jar.getClass(returnType.getInternalName(), false), name, methodDescriptor, new HashSet<>());
+            return method != null ? mapMethodName(returnType.getInternalName(), name, method.getDescriptor()) : name;
+        }
+
+        private String resolveField(String owner, String name, String descriptor, boolean inherited, Set<String> visited) {
+            if (!visited.add(owner)) {
+                return null;
+            }
+
+            JarClassEntry c = jar.getClass(owner, false);
+            JarFieldEntry field = c != null ? c.getField(name + descriptor) : null;
+
+            if (field == null || !inherited || !Access.isPrivate(field.getAccess())) {
+                EntryTriple mapped = map.getField(owner, name, descriptor);
+                if (mapped != null) {
+                    return mapped.getName();
+                }
+
+                if (field != null) {
+                    // declared here, so nothing further up the hierarchy applies
+                    return null;
+                }
+            }
+
+            return c != null ? resolveInParents(c, (parent) -> resolveField(parent, name, descriptor, true, visited)) : null;
+        }
+
+        private String resolveMethod(String owner, String name, String descriptor, boolean inherited, Set<String> visited) {
+            if (!visited.add(owner)) {
+                return null;
+            }
+
+            JarClassEntry c = jar.getClass(owner, false);
+            JarMethodEntry method = c != null ? c.getMethod(name + descriptor) : null;
+
+            if (method == null || !inherited || !Access.isPrivate(method.getAccess())) {
+                EntryTriple mapped = map.getMethod(owner, name, descriptor);
+                if (mapped != null) {
+                    return mapped.getName();
+                }
+
+                if (method != null && Access.isPrivateOrStatic(method.getAccess())) {
+                    // private and static methods don't override anything further up the hierarchy
+                    return null;
+                }
+            }
+
+            // overrides are usually only mapped on the class declaring the method first
+            return c != null ? resolveInParents(c, (parent) -> resolveMethod(parent, name, descriptor, true, visited)) : null;
+        }
+
+        private String resolveInParents(JarClassEntry c, Function<String, String> resolver) {
+            List<String> parents = new ArrayList<>();
+            if (c.getSuperClassName() != null) {
+                parents.add(c.getSuperClassName());
+            }
+
+            parents.addAll(c.getInterfaceNames());
+
+            for (String parent : parents) {
+                String mapped = resolver.apply(parent);
+                if (mapped != null) {
+                    return mapped;
+                }
+            }
+
+            return null;
+        }
+
+        private JarMethodEntry findAbstractMethod(JarClassEntry c, String name, String descriptor, Set<JarClassEntry> visited) {
+            if (c == null || !visited.add(c)) {
+                return null;
+            }
+
+            for (JarMethodEntry method : c.getMethods()) {
+                if (method.getName().equals(name) && method.getDescriptor().equals(descriptor) && (method.getAccess() & Opcodes.ACC_ABSTRACT) != 0) {
+                    return method;
+                }
+            }
+
+            for (JarClassEntry itf : c.getInterfaces(jar)) {
+                JarMethodEntry method = findAbstractMethod(itf, name, descriptor, visited);
+                if (method != null) {
+                    return method;
+                }
+            }
+
+            return null;
+        }
+    }
+}
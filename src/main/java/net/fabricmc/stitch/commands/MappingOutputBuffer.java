@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte buffer which encodes mapping lines straight to UTF-8 and hands them to the
+ * underlying stream in a single write on every {@link #flush()}.
+ */
+class MappingOutputBuffer implements Closeable {
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int size;
+
+    MappingOutputBuffer(OutputStream out, int capacity) {
+        this.out = out;
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Creates a buffer without a stream, which can only be {@link #append(MappingOutputBuffer) appended}
+     * to another buffer. Flushing or closing it keeps its contents.
+     */
+    MappingOutputBuffer(int capacity) {
+        this(null, capacity);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(capacity, buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, size);
+            buffer = newBuffer;
+        }
+    }
+
+    public MappingOutputBuffer append(String s) {
+        int length = s.length();
+        ensureCapacity(size + length);
+
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = s.substring(i).getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(size + bytes.length);
+                System.arraycopy(bytes, 0, buffer, size, bytes.length);
+                size += bytes.length;
+                return this;
+            }
+
+            buffer[size++] = (byte) c;
+        }
+
+        return this;
+    }
+
+    public MappingOutputBuffer append(char c) {
+        if (c >= 0x80) {
+            return append(String.valueOf(c));
+        }
+
+        ensureCapacity(size + 1);
+        buffer[size++] = (byte) c;
+        return this;
+    }
+
+    public MappingOutputBuffer append(MappingOutputBuffer other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.buffer, 0, buffer, size, other.size);
+        size += other.size;
+        return this;
+    }
+
+    public MappingOutputBuffer append(int i) {
+        return append(Integer.toString(i));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void flush() throws IOException {
+        if (out != null && size > 0) {
+            out.write(buffer, 0, size);
+            size = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+}
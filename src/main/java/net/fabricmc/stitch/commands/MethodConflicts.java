@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import net.fabricmc.stitch.util.StitchUtil;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Method name conflicts of a non-interactive intermediary update.
+ *
+ * <p>Reports and resolution files share a tab separated format, one conflict per line:
+ * {@code owner name descriptor candidate...}, where owner, name and descriptor identify the
+ * method in the new jar. Lines starting with {@code #} are ignored. A report becomes a
+ * resolution file once every line is cut down to the single chosen candidate.
+ */
+class MethodConflicts {
+    private final Map<String, String> resolutions = new HashMap<>();
+    private final List<String> reportLines = new ArrayList<>();
+    private int conflictCount;
+
+    private static String getKey(String owner, String name, String desc) {
+        return owner + "\t" + name + "\t" + desc;
+    }
+
+    public void readResolutions(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\t");
+                if (parts.length != 4) {
+                    throw new IOException("Invalid conflict resolution, expected exactly one candidate: " + line);
+                }
+
+                resolutions.put(getKey(parts[0], parts[1], parts[2]), parts[3]);
+            }
+        }
+    }
+
+    @Nullable
+    public String getResolution(String owner, String name, String desc) {
+        return resolutions.get(getKey(owner, name, desc));
+    }
+
+    public void addConflict(String owner, String name, String desc, List<String> candidates, Map<String, Set<String>> sources) {
+        for (String candidate : candidates) {
+            reportLines.add("# " + candidate + " <- " + StitchUtil.join(", ", sources.get(candidate)));
+        }
+
+        reportLines.add(getKey(owner, name, desc) + "\t" + StitchUtil.join("\t", candidates));
+        conflictCount++;
+    }
+
+    public boolean isEmpty() {
+        return conflictCount == 0;
+    }
+
+    public int size() {
+        return conflictCount;
+    }
+
+    public void writeReport(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (String line : reportLines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+}
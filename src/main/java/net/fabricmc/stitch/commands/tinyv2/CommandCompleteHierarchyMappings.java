@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.representation.JarReader;
+import net.fabricmc.stitch.representation.JarRootEntry;
+
+/**
+ * Completes the method names of a tiny v2 file over the override hierarchy of a jar, see {@link HierarchyMappingCompleter}.
+ * Inconsistently named groups are reported one per line and namespace, with the classes using each name, to the
+ * report file if one is given and to the error output otherwise.
+ */
+public class CommandCompleteHierarchyMappings extends Command {
+	public CommandCompleteHierarchyMappings() {
+		super("completeHierarchyMappings");
+	}
+
+	@Override
+	public String getHelpString() {
+		return "<jar> <input-mappings> <output-mappings> [inconsistency-report]";
+	}
+
+	@Override
+	public boolean isArgumentCountValid(int count) {
+		return count == 3 || count == 4;
+	}
+
+	@Override
+	public void run(String[] args) throws Exception {
+		JarRootEntry jar = new JarRootEntry(new File(args[0]));
+		JarReader.Builder.create(jar).joinMethodEntries(true).build().apply();
+
+		TinyFile mappings = TinyV2Reader.read(Paths.get(args[1]));
+		HierarchyMappingCompleter completer = new HierarchyMappingCompleter(jar, mappings);
+		completer.complete();
+
+		if (args.length == 4) {
+			Files.write(Paths.get(args[3]), completer.getInconsistencies(), StandardCharsets.UTF_8);
+		} else {
+			for (String inconsistency : completer.getInconsistencies()) {
+				System.err.println("Inconsistent names: " + inconsistency);
+			}
+		}
+
+		TinyV2Writer.write(mappings, Paths.get(args[2]));
+		System.err.println("Completed " + completer.getCompletedGroups() + " method groups, added " + completer.getAddedMethods()
+						+ " methods, found " + completer.getInconsistencies().size() + " inconsistencies.");
+	}
+}
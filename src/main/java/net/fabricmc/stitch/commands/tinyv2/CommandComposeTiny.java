@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+
+import net.fabricmc.stitch.Command;
+
+/**
+ * Composes two tiny v2 files with 2 namespaces each that share one namespace, such as official-intermediary and
+ * intermediary-named, into a single file mapping the other namespace of the first input to the other namespace
+ * of the second input (official-named). With --keep-shared the shared namespace is kept as the middle column.
+ * <p>
+ * The second input is indexed by its names in the shared namespace, and every entry of the first input is looked up
+ * in that index directly, so no reordering or merging passes are needed. Descriptors only have to be translated
+ * between namespaces when an input doesn't have its descriptors in the namespace the lookup needs; translated
+ * descriptors are cached since most of them repeat.
+ * <p>
+ * Entries of the first input missing from the second keep their name in the shared namespace, entries of the second
+ * input missing from the first are dropped since they have no name in the source namespace. Parameters and local
+ * variables are matched by their slot, and local variables also by the offset they start at.
+ * <p>
+ * Classes are composed in the order they are written in and written as soon as they are done, so only the inputs are
+ * held in memory, never the composed file.
+ */
+public class CommandComposeTiny extends Command {
+	public CommandComposeTiny() {
+		super("composeTiny");
+	}
+
+	@Override
+	public String getHelpString() {
+		return "<input-a> <input-b> <output> [--keep-shared]";
+	}
+
+	@Override
+	public boolean isArgumentCountValid(int count) {
+		return count >= 3;
+	}
+
+	@Override
+	public void run(String[] args) throws Exception {
+		Path inputA = Paths.get(args[0]);
+		Path inputB = Paths.get(args[1]);
+		boolean keepShared = false;
+
+		for (int i = 3; i < args.length; i++) {
+			if (args[i].toLowerCase(Locale.ROOT).equals("--keep-shared")) {
+				keepShared = true;
+			}
+		}
+
+		System.out.println("Reading " + inputA);
+		TinyFile tinyFileA = TinyV2Reader.read(inputA);
+		System.out.println("Reading " + inputB);
+		TinyFile tinyFileB = TinyV2Reader.read(inputB);
+
+		System.out.println("Composing " + inputA + " with " + inputB);
+
+		try (TinyV2Writer writer = TinyV2Writer.open(composeHeader(tinyFileA, tinyFileB, keepShared), Paths.get(args[2]))) {
+			compose(tinyFileA, tinyFileB, keepShared, writer::writeClassEntry);
+		}
+
+		System.out.println("Composed mappings written to " + Paths.get(args[2]));
+	}
+
+	public static TinyFile compose(TinyFile inputA, TinyFile inputB, boolean keepShared) {
+		List<TinyClass> classes = new ArrayList<>(inputA.getClassEntries().size());
+		compose(inputA, inputB, keepShared, classes::add);
+		return new TinyFile(composeHeader(inputA, inputB, keepShared), classes);
+	}
+
+	/**
+	 * The header of the file {@link #compose(TinyFile, TinyFile, boolean, Consumer)} produces.
+	 */
+	public static TinyHeader composeHeader(TinyFile inputA, TinyFile inputB, boolean keepShared) {
+		int[] shared = getSharedColumns(inputA, inputB);
+		List<String> namespaces = new ArrayList<>();
+		namespaces.add(inputA.getHeader().getNamespaces().get(1 - shared[0]));
+		if (keepShared) namespaces.add(inputA.getHeader().getNamespaces().get(shared[0]));
+		namespaces.add(inputB.getHeader().getNamespaces().get(1 - shared[1]));
+
+		return new TinyHeader(namespaces, 2, 0, Collections.emptyMap());
+	}
+
+	/**
+	 * Composes the classes of the inputs and passes each to {@code output} as soon as it is done, sorted by
+	 * their name in the source namespace, the order {@link TinyV2Writer} writes classes in.
+	 */
+	public static void compose(TinyFile inputA, TinyFile inputB, boolean keepShared, Consumer<TinyClass> output) {
+		int[] shared = getSharedColumns(inputA, inputB);
+		int sharedA = shared[0];
+		int sharedB = shared[1];
+
+		// descriptors of A are in its first namespace, the lookup in B needs them in the shared one
+		// and the output needs them in the source namespace
+		DescriptorTranslator aToShared = sharedA == 0 ? null : new DescriptorTranslator(inputA, 0, 1);
+		DescriptorTranslator aToSource = sharedA == 0 ? new DescriptorTranslator(inputA, 0, 1) : null;
+		DescriptorTranslator bToShared = sharedB == 0 ? null : new DescriptorTranslator(inputB, 0, 1);
+
+		Index index = new Index(inputB, sharedB, bToShared);
+		List<TinyClass> classesA = new ArrayList<>(inputA.getClassEntries());
+		classesA.sort(Comparator.comparing((TinyClass c) -> name(c.getClassNames(), 1 - sharedA)));
+
+		for (TinyClass classA : classesA) {
+			String sharedName = name(classA.getClassNames(), sharedA);
+			IndexedClass indexed = index.classes.get(sharedName);
+			TinyClass classB = indexed != null ? indexed.tinyClass : null;
+
+			String targetName = classB != null ? target(classB.getClassNames(), sharedB, sharedName) : index.matchEnclosingClass(sharedName, sharedB);
+			TinyClass composedClass = new TinyClass(names(name(classA.getClassNames(), 1 - sharedA), sharedName, targetName, keepShared),
+							new ArrayList<>(), new ArrayList<>(), comments(classA.getComments(), classB != null ? classB.getComments() : null));
+
+			for (TinyField fieldA : classA.getFields()) {
+				String descA = fieldA.getFieldDescriptorInFirstNamespace();
+				String sharedDesc = aToShared != null ? aToShared.mapDesc(descA) : descA;
+				String fieldName = name(fieldA.getFieldNames(), sharedA);
+				TinyField fieldB = indexed != null ? indexed.fields.get(fieldName + ";;" + sharedDesc) : null;
+
+				composedClass.getFields().add(new TinyField(aToSource != null ? aToSource.mapDesc(descA) : descA,
+								names(name(fieldA.getFieldNames(), 1 - sharedA), fieldName, fieldB != null ? target(fieldB.getFieldNames(), sharedB, fieldName) : fieldName, keepShared),
+								comments(fieldA.getComments(), fieldB != null ? fieldB.getComments() : null)));
+			}
+
+			for (TinyMethod methodA : classA.getMethods()) {
+				String descA = methodA.getMethodDescriptorInFirstNamespace();
+				String sharedDesc = aToShared != null ? aToShared.mapMethodDesc(descA) : descA;
+				String methodName = name(methodA.getMethodNames(), sharedA);
+				TinyMethod methodB = indexed != null ? indexed.methods.get(methodName + sharedDesc) : null;
+
+				composedClass.getMethods().add(composeMethod(methodA, methodB, aToSource != null ? aToSource.mapMethodDesc(descA) : descA,
+								methodName, sharedA, sharedB, keepShared));
+			}
+
+			output.accept(composedClass);
+		}
+	}
+
+	/**
+	 * Finds the columns of the namespace both inputs share.
+	 *
+	 * @return the column in the first input, then the column in the second one
+	 */
+	private static int[] getSharedColumns(TinyFile inputA, TinyFile inputB) {
+		List<String> namespacesA = inputA.getHeader().getNamespaces();
+		List<String> namespacesB = inputB.getHeader().getNamespaces();
+
+		if (namespacesA.size() != 2 || namespacesB.size() != 2) {
+			throw new IllegalArgumentException("Both inputs must have exactly 2 namespaces: " + namespacesA + ", " + namespacesB);
+		}
+
+		int sharedA = namespacesB.contains(namespacesA.get(1)) ? 1 : 0;
+		int sharedB = namespacesB.indexOf(namespacesA.get(sharedA));
+
+		if (sharedB < 0) {
+			throw new IllegalArgumentException("The inputs do not share a namespace: " + namespacesA + ", " + namespacesB);
+		}
+
+		return new int[] {sharedA, sharedB};
+	}
+
+	private static TinyMethod composeMethod(TinyMethod methodA, TinyMethod methodB, String desc, String sharedName, int sharedA, int sharedB, boolean keepShared) {
+		String targetName = methodB != null ? target(methodB.getMethodNames(), sharedB, sharedName) : sharedName;
+		TinyMethod composed = new TinyMethod(desc, names(name(methodA.getMethodNames(), 1 - sharedA), sharedName, targetName, keepShared),
+						new ArrayList<>(), new ArrayList<>(), comments(methodA.getComments(), methodB != null ? methodB.getComments() : null));
+
+		// parameters and locals are matched by their slot, which is the same in every namespace
+		Map<Integer, TinyMethodParameter> parametersB = new HashMap<>();
+		if (methodB != null) {
+			for (TinyMethodParameter parameter : methodB.getParameters()) {
+				parametersB.put(parameter.getLvIndex(), parameter);
+			}
+		}
+
+		for (TinyMethodParameter parameterA : methodA.getParameters()) {
+			TinyMethodParameter parameterB = parametersB.remove(parameterA.getLvIndex());
+			List<String> namesA = parameterA.getParameterNames();
+			composed.getParameters().add(new TinyMethodParameter(parameterA.getLvIndex(),
+							names(namesA.get(1 - sharedA), namesA.get(sharedA), parameterB != null ? parameterB.getParameterNames().get(1 - sharedB) : "", keepShared),
+							comments(parameterA.getComments(), parameterB != null ? parameterB.getComments() : null)));
+		}
+
+		for (TinyMethodParameter parameterB : parametersB.values()) {
+			List<String> namesB = parameterB.getParameterNames();
+			composed.getParameters().add(new TinyMethodParameter(parameterB.getLvIndex(),
+							names("", namesB.get(sharedB), namesB.get(1 - sharedB), keepShared), new ArrayList<>(parameterB.getComments())));
+		}
+
+		// locals by their slot and the offset they start at, since a slot can be reused
+		Map<String, TinyLocalVariable> localsB = new LinkedHashMap<>();
+		if (methodB != null) {
+			for (TinyLocalVariable local : methodB.getLocalVariables()) {
+				localsB.put(local.getLvIndex() + ":" + local.getLvStartOffset(), local);
+			}
+		}
+
+		for (TinyLocalVariable localA : methodA.getLocalVariables()) {
+			TinyLocalVariable localB = localsB.remove(localA.getLvIndex() + ":" + localA.getLvStartOffset());
+			List<String> namesA = localA.getLocalVariableNames();
+			composed.getLocalVariables().add(new TinyLocalVariable(localA.getLvIndex(), localA.getLvStartOffset(), localA.getLvTableIndex(),
+							names(namesA.get(1 - sharedA), namesA.get(sharedA), localB != null ? localB.getLocalVariableNames().get(1 - sharedB) : "", keepShared),
+							comments(localA.getComments(), localB != null ? localB.getComments() : null)));
+		}
+
+		for (TinyLocalVariable localB : localsB.values()) {
+			List<String> namesB = localB.getLocalVariableNames();
+			composed.getLocalVariables().add(new TinyLocalVariable(localB.getLvIndex(), localB.getLvStartOffset(), localB.getLvTableIndex(),
+							names("", namesB.get(sharedB), namesB.get(1 - sharedB), keepShared), new ArrayList<>(localB.getComments())));
+		}
+
+		return composed;
+	}
+
+	/**
+	 * Unmapped names are left empty in tiny v2, they fall back to the name in the first namespace.
+	 */
+	private static String name(List<String> names, int index) {
+		String name = index < names.size() ? names.get(index) : "";
+		return name.isEmpty() ? names.get(0) : name;
+	}
+
+	/**
+	 * The name of an entry of the second input in the target namespace, or its shared name if it has none.
+	 */
+	private static String target(List<String> names, int shared, String sharedName) {
+		String name = names.get(1 - shared);
+		return name.isEmpty() ? sharedName : name;
+	}
+
+	private static List<String> names(String source, String shared, String target, boolean keepShared) {
+		return keepShared ? Arrays.asList(source, shared, target) : Arrays.asList(source, target);
+	}
+
+	private static List<String> comments(Collection<String> commentsA, Collection<String> commentsB) {
+		List<String> comments = new ArrayList<>(commentsA);
+		if (commentsB != null) {
+			for (String comment : commentsB) {
+				if (!comments.contains(comment)) comments.add(comment);
+			}
+		}
+
+		return comments;
+	}
+
+	private static class IndexedClass {
+		private final TinyClass tinyClass;
+		private final Map<String, TinyField> fields = new HashMap<>();
+		private final Map<String, TinyMethod> methods = new HashMap<>();
+
+		private IndexedClass(TinyClass tinyClass) {
+			this.tinyClass = tinyClass;
+		}
+	}
+
+	/**
+	 * Classes and members of a tiny file keyed by their names and descriptors in the shared namespace.
+	 */
+	private static class Index {
+		private final Map<String, IndexedClass> classes = new HashMap<>();
+
+		private Index(TinyFile file, int shared, DescriptorTranslator toShared) {
+			for (TinyClass tinyClass : file.getClassEntries()) {
+				IndexedClass indexed = new IndexedClass(tinyClass);
+				classes.put(name(tinyClass.getClassNames(), shared), indexed);
+
+				for (TinyField field : tinyClass.getFields()) {
+					String desc = field.getFieldDescriptorInFirstNamespace();
+					indexed.fields.put(name(field.getFieldNames(), shared) + ";;" + (toShared != null ? toShared.mapDesc(desc) : desc), field);
+				}
+
+				for (TinyMethod method : tinyClass.getMethods()) {
+					String desc = method.getMethodDescriptorInFirstNamespace();
+					indexed.methods.put(name(method.getMethodNames(), shared) + (toShared != null ? toShared.mapMethodDesc(desc) : desc), method);
+				}
+			}
+		}
+
+		/**
+		 * Maps an inner class without an entry of its own through its closest mapped enclosing class,
+		 * see {@link CommandMergeTinyV2}.
+		 */
+		private String matchEnclosingClass(String sharedName, int shared) {
+			int end = sharedName.lastIndexOf('$');
+
+			while (end > 0) {
+				IndexedClass match = classes.get(sharedName.substring(0, end));
+				if (match != null) {
+					return target(match.tinyClass.getClassNames(), shared, sharedName.substring(0, end)) + sharedName.substring(end);
+				}
+
+				end = sharedName.lastIndexOf('$', end - 1);
+			}
+
+			return sharedName;
+		}
+	}
+
+	/**
+	 * Translates descriptors from one namespace of a tiny file to another, caching every result.
+	 */
+	private static class DescriptorTranslator {
+		private final Remapper remapper;
+		private final Map<String, String> cache = new HashMap<>();
+
+		private DescriptorTranslator(TinyFile file, int from, int to) {
+			Map<String, String> classNames = new HashMap<>();
+			for (TinyClass tinyClass : file.getClassEntries()) {
+				classNames.put(name(tinyClass.getClassNames(), from), name(tinyClass.getClassNames(), to));
+			}
+
+			this.remapper = new SimpleRemapper(classNames);
+		}
+
+		private String mapDesc(String desc) {
+			return cache.computeIfAbsent(desc, remapper::mapDesc);
+		}
+
+		private String mapMethodDesc(String desc) {
+			return cache.computeIfAbsent(desc, remapper::mapMethodDesc);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.representation.JarReader;
+import net.fabricmc.stitch.representation.JarRootEntry;
+
+/**
+ * Writes mapping coverage statistics of a jar as JSON, see {@link MappingStats}.
+ */
+public class CommandMappingStats extends Command {
+	public CommandMappingStats() {
+		super("mappingStats");
+	}
+
+	@Override
+	public String getHelpString() {
+		return "<jar> <tiny-v2-mapping-file> [json-output-file]";
+	}
+
+	@Override
+	public boolean isArgumentCountValid(int count) {
+		return count == 2 || count == 3;
+	}
+
+	@Override
+	public void run(String[] args) throws Exception {
+		File jarFile = new File(args[0]);
+		JarRootEntry jar = new JarRootEntry(jarFile);
+		JarReader.Builder.create(jar).joinMethodEntries(false).build().apply();
+
+		TinyFile mappings = TinyV2Reader.read(Paths.get(args[1]));
+		MappingStats stats = MappingStats.compute(jar, mappings);
+
+		if (args.length == 3) {
+			try (Writer writer = Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)) {
+				stats.writeJson(writer, jarFile.getName());
+			}
+		} else {
+			Writer writer = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+			stats.writeJson(writer, jarFile.getName());
+			writer.flush();
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.fabricmc.stitch.representation.JarClassEntry;
+import net.fabricmc.stitch.representation.JarMethodEntry;
+import net.fabricmc.stitch.representation.JarRootEntry;
+
+/**
+ * Propagates method names of a tiny v2 file to every class of the same override group, as found by joining the
+ * method entries of a jar. The jar has to be in the first namespace of the mappings.
+ * <p>
+ * Joined method entries are a single {@link JarMethodEntry} shared by all classes of the group, so the classes of
+ * each group are gathered by its group id in one pass over the jar and every group is completed exactly once.
+ * Groups whose mapped classes disagree on a name are reported and completed with the name used most often. Classes
+ * without mappings of their own are left out, they would only get an entry without names.
+ */
+class HierarchyMappingCompleter {
+	private final JarRootEntry jar;
+	private final TinyFile mappings;
+	private final int namespaceCount;
+	private final Map<String, TinyClass> classes;
+	private final Map<TinyClass, Map<String, TinyMethod>> methods = new HashMap<>();
+	private final List<String> inconsistencies = new ArrayList<>();
+	private int completedGroups, addedMethods;
+
+	HierarchyMappingCompleter(JarRootEntry jar, TinyFile mappings) {
+		this.jar = jar;
+		this.mappings = mappings;
+		this.namespaceCount = mappings.getHeader().getNamespaces().size();
+		this.classes = mappings.mapClassesByFirstNamespace();
+	}
+
+	void complete() {
+		List<List<JarClassEntry>> groups = new ArrayList<>(Collections.nCopies(jar.getMethodGroupCount(), null));
+		JarMethodEntry[] groupMethods = new JarMethodEntry[jar.getMethodGroupCount()];
+
+		for (JarClassEntry c : jar.getAllClasses()) {
+			for (JarMethodEntry m : c.getMethods()) {
+				if (m.getName().startsWith("<")) {
+					continue;
+				}
+
+				List<JarClassEntry> group = groups.get(m.getGroupId());
+				if (group == null) {
+					groups.set(m.getGroupId(), group = new ArrayList<>());
+					groupMethods[m.getGroupId()] = m;
+				}
+
+				group.add(c);
+			}
+		}
+
+		for (int i = 0; i < groups.size(); i++) {
+			List<JarClassEntry> group = groups.get(i);
+
+			if (group != null && group.size() > 1) {
+				completeGroup(groupMethods[i], group);
+			}
+		}
+	}
+
+	private void completeGroup(JarMethodEntry method, List<JarClassEntry> group) {
+		String key = method.getName() + method.getDescriptor();
+		List<TinyMethod> mapped = new ArrayList<>(group.size());
+		boolean incomplete = false;
+
+		for (JarClassEntry c : group) {
+			TinyClass tinyClass = classes.get(c.getFullyQualifiedName());
+			TinyMethod tinyMethod = getMethod(tinyClass, key);
+			mapped.add(tinyMethod);
+			incomplete |= tinyClass != null && (tinyMethod == null || hasEmptyName(tinyMethod));
+		}
+
+		String[] names = new String[namespaceCount];
+		boolean named = false;
+
+		for (int ns = 1; ns < namespaceCount; ns++) {
+			Map<String, List<String>> candidates = new LinkedHashMap<>();
+
+			for (int i = 0; i < group.size(); i++) {
+				TinyMethod tinyMethod = mapped.get(i);
+				String name = tinyMethod != null && ns < tinyMethod.getMethodNames().size() ? tinyMethod.getMethodNames().get(ns) : "";
+
+				if (!name.isEmpty()) {
+					candidates.computeIfAbsent(name, (n) -> new ArrayList<>()).add(group.get(i).getFullyQualifiedName());
+				}
+			}
+
+			if (candidates.size() > 1) {
+				inconsistencies.add(mappings.getHeader().getNamespaces().get(ns) + "\t" + key + "\t" + candidates);
+			}
+
+			for (Map.Entry<String, List<String>> candidate : candidates.entrySet()) {
+				if (names[ns] == null || candidate.getValue().size() > candidates.get(names[ns]).size()) {
+					names[ns] = candidate.getKey();
+				}
+			}
+
+			// names equal to the jar name change nothing, completing them would only add noise
+			named |= names[ns] != null && !names[ns].equals(method.getName());
+		}
+
+		if (!incomplete || !named) {
+			return;
+		}
+
+		for (int i = 0; i < group.size(); i++) {
+			TinyClass tinyClass = classes.get(group.get(i).getFullyQualifiedName());
+			TinyMethod tinyMethod = mapped.get(i);
+
+			if (tinyClass == null) {
+				continue;
+			}
+
+			if (tinyMethod == null) {
+				List<String> methodNames = new ArrayList<>(Collections.nCopies(namespaceCount, ""));
+				methodNames.set(0, method.getName());
+				tinyMethod = new TinyMethod(method.getDescriptor(), methodNames, new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+				addMethod(tinyClass, key, tinyMethod);
+				addedMethods++;
+			}
+
+			List<String> methodNames = tinyMethod.getMethodNames();
+			while (methodNames.size() < namespaceCount) {
+				methodNames.add("");
+			}
+
+			for (int ns = 1; ns < namespaceCount; ns++) {
+				if (methodNames.get(ns).isEmpty() && names[ns] != null) {
+					methodNames.set(ns, names[ns]);
+				}
+			}
+		}
+
+		completedGroups++;
+	}
+
+	private boolean hasEmptyName(TinyMethod tinyMethod) {
+		List<String> names = tinyMethod.getMethodNames();
+		if (names.size() < namespaceCount) {
+			return true;
+		}
+
+		for (int ns = 1; ns < namespaceCount; ns++) {
+			if (names.get(ns).isEmpty()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private TinyMethod getMethod(TinyClass tinyClass, String key) {
+		if (tinyClass == null) {
+			return null;
+		}
+
+		return methods.computeIfAbsent(tinyClass, (c) -> {
+			Map<String, TinyMethod> byKey = new HashMap<>();
+			for (TinyMethod m : c.getMethods()) {
+				byKey.put(m.getMethodNames().get(0) + m.getMethodDescriptorInFirstNamespace(), m);
+			}
+
+			return byKey;
+		}).get(key);
+	}
+
+	private void addMethod(TinyClass tinyClass, String key, TinyMethod tinyMethod) {
+		getMethod(tinyClass, key);
+		methods.get(tinyClass).put(key, tinyMethod);
+		tinyClass.getMethods().add(tinyMethod);
+	}
+
+	List<String> getInconsistencies() {
+		return inconsistencies;
+	}
+
+	int getCompletedGroups() {
+		return completedGroups;
+	}
+
+	int getAddedMethods() {
+		return addedMethods;
+	}
+}
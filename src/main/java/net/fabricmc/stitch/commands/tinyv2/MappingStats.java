@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.objectweb.asm.Type;
+
+import net.fabricmc.stitch.representation.JarClassEntry;
+import net.fabricmc.stitch.representation.JarFieldEntry;
+import net.fabricmc.stitch.representation.JarMethodEntry;
+import net.fabricmc.stitch.representation.JarRootEntry;
+import net.fabricmc.stitch.util.Pair;
+
+/**
+ * Counts, per package and per namespace, how many classes, fields, methods and parameters of a jar
+ * have a real name, only an intermediary name ({@code class_123} and the like), or no name at all.
+ * <p>
+ * The jar has to be in the first namespace of the mappings. Methods that only override another one
+ * and constructors aren't counted, as they can't be named on their own.
+ */
+class MappingStats {
+	static final String[] KINDS = {"classes", "fields", "methods", "parameters"};
+	static final String[] STATES = {"mapped", "intermediary", "unmapped"};
+
+	private static final int MAPPED = 0;
+	private static final int INTERMEDIARY = 1;
+	private static final int UNMAPPED = 2;
+
+	private final List<String> namespaces;
+	// package -> [namespace][kind][state]
+	private final Map<String, long[][][]> packages = new TreeMap<>();
+
+	private MappingStats(List<String> namespaces) {
+		this.namespaces = namespaces;
+	}
+
+	public static MappingStats compute(JarRootEntry jar, TinyFile mappings) {
+		List<String> namespaces = mappings.getHeader().getNamespaces().subList(1, mappings.getHeader().getNamespaces().size());
+		Map<String, TinyClass> classes = mappings.mapClassesByFirstNamespace();
+
+		// one accumulator per worker, combined once at the end
+		return jar.getClasses().parallelStream().collect(
+						() -> new MappingStats(namespaces),
+						(stats, c) -> stats.count(jar, c, classes),
+						MappingStats::addAll
+		);
+	}
+
+	private void addAll(MappingStats other) {
+		other.packages.forEach((name, counts) -> {
+			long[][][] target = getCounts(name);
+
+			for (int ns = 0; ns < counts.length; ns++) {
+				for (int kind = 0; kind < KINDS.length; kind++) {
+					for (int state = 0; state < STATES.length; state++) {
+						target[ns][kind][state] += counts[ns][kind][state];
+					}
+				}
+			}
+		});
+	}
+
+	private long[][][] getCounts(String packageName) {
+		return packages.computeIfAbsent(packageName, p -> new long[namespaces.size()][KINDS.length][STATES.length]);
+	}
+
+	private void count(JarRootEntry jar, JarClassEntry c, Map<String, TinyClass> classes) {
+		String name = c.getFullyQualifiedName();
+		int packageEnd = name.lastIndexOf('/');
+		long[][][] counts = getCounts(packageEnd >= 0 ? name.substring(0, packageEnd) : "");
+
+		TinyClass tinyClass = classes.get(name);
+		Map<Pair<String, String>, TinyField> fields = tinyClass != null ? tinyClass.mapFieldsByFirstNamespaceAndDescriptor() : new HashMap<>();
+		Map<Pair<String, String>, TinyMethod> methods = tinyClass != null ? tinyClass.mapMethodsByFirstNamespaceAndDescriptor() : new HashMap<>();
+
+		for (int ns = 0; ns < namespaces.size(); ns++) {
+			counts[ns][0][getState(tinyClass != null ? tinyClass.getClassNames() : null, ns + 1)]++;
+		}
+
+		for (JarFieldEntry f : c.getFields()) {
+			TinyField tinyField = fields.get(Pair.of(f.getName(), f.getDescriptor()));
+
+			for (int ns = 0; ns < namespaces.size(); ns++) {
+				counts[ns][1][getState(tinyField != null ? tinyField.getFieldNames() : null, ns + 1)]++;
+			}
+		}
+
+		for (JarMethodEntry m : c.getMethods()) {
+			if (m.getName().startsWith("<") || !m.isSource(jar, c)) {
+				continue;
+			}
+
+			TinyMethod tinyMethod = methods.get(Pair.of(m.getName(), m.getDescriptor()));
+			int parameterCount = Type.getArgumentTypes(m.getDescriptor()).length;
+
+			for (int ns = 0; ns < namespaces.size(); ns++) {
+				counts[ns][2][getState(tinyMethod != null ? tinyMethod.getMethodNames() : null, ns + 1)]++;
+
+				int namedParameters = 0;
+				if (tinyMethod != null) {
+					for (TinyMethodParameter parameter : tinyMethod.getParameters()) {
+						if (getState(parameter.getParameterNames(), ns + 1) == MAPPED) {
+							namedParameters++;
+						}
+					}
+				}
+
+				// parameters never get intermediary names, whatever isn't named stays unnamed
+				counts[ns][3][MAPPED] += Math.min(namedParameters, parameterCount);
+				counts[ns][3][UNMAPPED] += Math.max(parameterCount - namedParameters, 0);
+			}
+		}
+
+		for (JarClassEntry inner : c.getInnerClasses()) {
+			count(jar, inner, classes);
+		}
+	}
+
+	private static int getState(List<String> names, int index) {
+		String name = names != null && index < names.size() ? names.get(index) : "";
+
+		if (name.isEmpty()) {
+			return UNMAPPED;
+		}
+
+		return isIntermediaryName(name) ? INTERMEDIARY : MAPPED;
+	}
+
+	/**
+	 * @return whether the simple name is one of {@code class_}, {@code field_}, {@code method_} or {@code comp_} followed by digits
+	 */
+	static boolean isIntermediaryName(String name) {
+		int start = Math.max(name.lastIndexOf('/'), name.lastIndexOf('$')) + 1;
+		int underscore = name.indexOf('_', start);
+
+		if (underscore < 0 || underscore == name.length() - 1) {
+			return false;
+		}
+
+		switch (name.substring(start, underscore)) {
+		case "class":
+		case "field":
+		case "method":
+		case "comp":
+			break;
+		default:
+			return false;
+		}
+
+		for (int i = underscore + 1; i < name.length(); i++) {
+			if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public void writeJson(Writer writer, String jarName) throws IOException {
+		writer.write("{\n");
+		writer.write("  \"jar\": " + quote(jarName) + ",\n");
+		writer.write("  \"namespaces\": {");
+
+		for (int ns = 0; ns < namespaces.size(); ns++) {
+			long[][] total = new long[KINDS.length][STATES.length];
+
+			for (long[][][] counts : packages.values()) {
+				for (int kind = 0; kind < KINDS.length; kind++) {
+					for (int state = 0; state < STATES.length; state++) {
+						total[kind][state] += counts[ns][kind][state];
+					}
+				}
+			}
+
+			writer.write(ns > 0 ? ",\n" : "\n");
+			writer.write("    " + quote(namespaces.get(ns)) + ": {\n");
+			writer.write("      \"total\": ");
+			writeCounts(writer, total);
+			writer.write(",\n      \"packages\": {");
+
+			boolean first = true;
+			for (Map.Entry<String, long[][][]> entry : packages.entrySet()) {
+				writer.write(first ? "\n" : ",\n");
+				writer.write("        " + quote(entry.getKey()) + ": ");
+				writeCounts(writer, entry.getValue()[ns]);
+				first = false;
+			}
+
+			writer.write("\n      }\n    }");
+		}
+
+		writer.write("\n  }\n}\n");
+	}
+
+	private static void writeCounts(Writer writer, long[][] counts) throws IOException {
+		writer.write("{");
+
+		for (int kind = 0; kind < KINDS.length; kind++) {
+			long total = 0;
+			for (long count : counts[kind]) {
+				total += count;
+			}
+
+			writer.write((kind > 0 ? ", " : "") + quote(KINDS[kind]) + ": {\"total\": " + total);
+
+			for (int state = 0; state < STATES.length; state++) {
+				writer.write(", " + quote(STATES[state]) + ": " + counts[kind][state]);
+			}
+
+			writer.write("}");
+		}
+
+		writer.write("}");
+	}
+
+	private static String quote(String s) {
+		StringBuilder builder = new StringBuilder("\"");
+
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20) {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+
+		return builder.append('"').toString();
+	}
+}
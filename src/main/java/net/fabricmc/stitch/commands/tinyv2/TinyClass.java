@@ -63,6 +63,13 @@ public class TinyClass implements Comparable<TinyClass>, Mapping {
 		return fields.stream().collect(Collectors.toMap(f -> f.getFieldNames().get(0), f -> f));
 	}
 
+	/**
+	 * Obfuscated fields can share a name and differ in their descriptor, so both make up the key.
+	 */
+	public Map<Pair<String, String>, TinyField> mapFieldsByFirstNamespaceAndDescriptor() {
+		return fields.stream().collect(Collectors.toMap(f -> Pair.of(f.getFieldNames().get(0), f.getFieldDescriptorInFirstNamespace()), f -> f));
+	}
+
 
 	public List<String> getClassNames() {
 		return classNames;
@@ -17,16 +17,37 @@
 package net.fabricmc.stitch.commands.tinyv2;
 
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 
-public class TinyV2Writer {
+public class TinyV2Writer implements Closeable {
 	public static void write(TinyFile tinyFile, Path writeTo) throws IOException {
 		new TinyV2Writer().instanceWrite(tinyFile, writeTo);
 	}
 
+	/**
+	 * Starts a file whose classes are written one at a time with {@link #writeClassEntry(TinyClass)}, in the order
+	 * they are passed in, so they never have to be held in memory together.
+	 */
+	public static TinyV2Writer open(TinyHeader header, Path writeTo) throws IOException {
+		TinyV2Writer writer = new TinyV2Writer();
+		writer.writer = Files.newBufferedWriter(writeTo);
+		writer.writeHeader(header);
+		return writer;
+	}
+
+	public void writeClassEntry(TinyClass tinyClass) {
+		writeClass(tinyClass);
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
 	private static class Prefixes {
 		private Prefixes() {
 		}
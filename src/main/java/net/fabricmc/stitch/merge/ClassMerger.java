@@ -21,6 +21,8 @@ import org.objectweb.asm.*;
 import org.objectweb.asm.tree.*;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 public class ClassMerger {
     private static final String SIDE_DESCRIPTOR = "Lnet/fabricmc/api/EnvType;";
@@ -28,47 +30,29 @@ public class ClassMerger {
     private static final String ITF_LIST_DESCRIPTOR = "Lnet/fabricmc/api/EnvironmentInterfaces;";
     private static final String SIDED_DESCRIPTOR = "Lnet/fabricmc/api/Environment;";
 
-    private abstract class Merger<T> {
-        private final Map<String, T> entriesClient, entriesServer;
-        private final List<String> entryNames;
-
-        public Merger(List<T> entriesClient, List<T> entriesServer) {
-            this.entriesClient = new LinkedHashMap<>();
-            this.entriesServer = new LinkedHashMap<>();
-
-            List<String> listClient = toMap(entriesClient, this.entriesClient);
-            List<String> listServer = toMap(entriesServer, this.entriesServer);
-
-            this.entryNames = StitchUtil.mergePreserveOrder(listClient, listServer);
-        }
-
-        public abstract String getName(T entry);
-        public abstract void applySide(T entry, String side);
-
-        private final List<String> toMap(List<T> entries, Map<String, T> map) {
-            List<String> list = new ArrayList<>(entries.size());
-            for (T entry : entries) {
-                String name = getName(entry);
-                map.put(name, entry);
-                list.add(name);
-            }
-            return list;
-        }
-
-        public void merge(List<T> list) {
-            for (String s : entryNames) {
-                T entryClient = entriesClient.get(s);
-                T entryServer = entriesServer.get(s);
+    /**
+     * The environments that can be merged, the constants of {@code EnvType}.
+     */
+    public static final List<String> ENVIRONMENTS = Collections.unmodifiableList(Arrays.asList("CLIENT", "SERVER"));
+
+    /**
+     * Gets the environment to annotate something present in only some of the merged versions with.
+     * {@code @Environment} takes a single {@code EnvType}, so something present in more than one of the
+     * environments stays unannotated, even if some versions of the same environment lack it.
+     *
+     * @param present the environments of the versions it is present in
+     * @param environments the environments of all versions
+     * @return the only environment it is present in, or null if it shouldn't be annotated
+     */
+    static String getSide(Collection<String> present, Collection<String> environments) {
+        Set<String> sides = new HashSet<>(present);
+        return sides.size() == 1 && !sides.containsAll(environments) ? sides.iterator().next() : null;
+    }
 
-                if (entryClient != null && entryServer != null) {
-                    list.add(entryClient);
-                } else if (entryClient != null) {
-                    applySide(entryClient, "CLIENT");
-                    list.add(entryClient);
-                } else {
-                    applySide(entryServer, "SERVER");
-                    list.add(entryServer);
-                }
+    static void checkEnvironments(List<String> environments) {
+        for (String environment : environments) {
+            if (!ENVIRONMENTS.contains(environment)) {
+                throw new IllegalArgumentException("Unknown environment " + environment + ", expected one of " + ENVIRONMENTS);
             }
         }
     }
@@ -107,119 +91,300 @@ public class ClassMerger {
 
     }
 
+    /**
+     * Merges two versions of a class, members present on only one side are annotated with that side.
+     */
     public byte[] merge(byte[] classClient, byte[] classServer) {
-        ClassReader readerC = new ClassReader(classClient);
-        ClassReader readerS = new ClassReader(classServer);
-        ClassWriter writer = new ClassWriter(0);
+        return merge(classClient, classServer, UnaryOperator.identity());
+    }
+
+    /**
+     * Merges two versions of a class like {@link #merge(byte[], byte[])}, passing the merged class through
+     * the visitors {@code postProcess} wraps around the writer before it is written, so those transforms
+     * don't need another parse of the output.
+     */
+    public byte[] merge(byte[] classClient, byte[] classServer, UnaryOperator<ClassVisitor> postProcess) {
+        return merge(Arrays.asList("CLIENT", "SERVER"), Arrays.asList(classClient, classServer), postProcess);
+    }
 
-        ClassNode nodeC = new ClassNode(StitchUtil.ASM_VERSION);
-        readerC.accept(nodeC, 0);
+    /**
+     * Merges any number of versions of a class in one pass. Members and interfaces present in only one of
+     * the environments are annotated with it, see {@link #getSide(Collection, Collection)}. Several versions
+     * may share an environment.
+     *
+     * <p>The first version is streamed into a writer sharing its constant pool, so members it shares with
+     * all others keep their encoded bytecode as is and only the few one-sided members are re-encoded.
+     * Members missing from it are inserted at the position the merged member order gives them.
+     *
+     * @param environments the environment name of each version, in the same order as {@code classes}
+     */
+    public byte[] merge(List<String> environments, List<byte[]> classes, UnaryOperator<ClassVisitor> postProcess) {
+        if (environments.size() != classes.size() || classes.isEmpty()) {
+            throw new IllegalArgumentException("Need one environment for each of at least one class");
+        }
+
+        checkEnvironments(environments);
 
-        ClassNode nodeS = new ClassNode(StitchUtil.ASM_VERSION);
-        readerS.accept(nodeS, 0);
+        ClassReader readerBase = new ClassReader(classes.get(0));
+        List<ClassNode> nodes = new ArrayList<>();
 
-        ClassNode nodeOut = new ClassNode(StitchUtil.ASM_VERSION);
-        nodeOut.version = nodeC.version;
-        nodeOut.access = nodeC.access;
-        nodeOut.name = nodeC.name;
-        nodeOut.signature = nodeC.signature;
-        nodeOut.superName = nodeC.superName;
-        nodeOut.sourceFile = nodeC.sourceFile;
-        nodeOut.sourceDebug = nodeC.sourceDebug;
-        nodeOut.outerClass = nodeC.outerClass;
-        nodeOut.outerMethod = nodeC.outerMethod;
-        nodeOut.outerMethodDesc = nodeC.outerMethodDesc;
-        nodeOut.module = nodeC.module;
-        nodeOut.nestHostClass = nodeC.nestHostClass;
-        nodeOut.nestMembers = nodeC.nestMembers;
-        nodeOut.attrs = nodeC.attrs;
+        // the order of the base members is needed up front to place the missing ones
+        ClassNode shapeBase = new ClassNode(StitchUtil.ASM_VERSION);
+        readerBase.accept(shapeBase, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        nodes.add(shapeBase);
 
-        if (nodeC.invisibleAnnotations != null) {
-            nodeOut.invisibleAnnotations = new ArrayList<>();
-            nodeOut.invisibleAnnotations.addAll(nodeC.invisibleAnnotations);
+        for (int i = 1; i < classes.size(); i++) {
+            ClassNode node = new ClassNode(StitchUtil.ASM_VERSION);
+            new ClassReader(classes.get(i)).accept(node, 0);
+            nodes.add(node);
         }
-        if (nodeC.invisibleTypeAnnotations != null) {
-            nodeOut.invisibleTypeAnnotations = new ArrayList<>();
-            nodeOut.invisibleTypeAnnotations.addAll(nodeC.invisibleTypeAnnotations);
+
+        ClassWriter writer = new ClassWriter(readerBase, 0);
+        readerBase.accept(new MergingClassVisitor(postProcess.apply(writer), environments, nodes), 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * The entries of one kind missing from the base version, keyed by the base entry they go right before,
+     * along with the environment of every entry that is only present in one.
+     */
+    private static class Insertions<T> {
+        private final Map<String, String> sides = new HashMap<>();
+        private final Map<String, List<T>> before = new HashMap<>();
+        private final List<T> after = new ArrayList<>();
+
+        private Insertions(List<String> environments, List<List<T>> entries, Function<T, String> getName) {
+            List<Map<String, T>> byName = new ArrayList<>();
+            List<String> order = null;
+
+            for (List<T> list : entries) {
+                Map<String, T> map = new LinkedHashMap<>();
+                for (T entry : list) {
+                    map.put(getName.apply(entry), entry);
+                }
+
+                byName.add(map);
+                List<String> names = new ArrayList<>(map.keySet());
+                order = order == null ? names : StitchUtil.mergePreserveOrder(order, names);
+            }
+
+            List<T> pending = new ArrayList<>();
+
+            for (String name : order) {
+                List<String> present = new ArrayList<>();
+                T entry = null;
+
+                for (int i = 0; i < byName.size(); i++) {
+                    T candidate = byName.get(i).get(name);
+
+                    if (candidate != null) {
+                        present.add(environments.get(i));
+
+                        if (entry == null) {
+                            entry = candidate;
+                        }
+                    }
+                }
+
+                String side = getSide(present, environments);
+
+                if (side != null) {
+                    sides.put(name, side);
+                }
+
+                if (byName.get(0).containsKey(name)) {
+                    if (!pending.isEmpty()) {
+                        before.put(name, pending);
+                        pending = new ArrayList<>();
+                    }
+                } else {
+                    pending.add(entry);
+                }
+            }
+
+            after.addAll(pending);
         }
-        if (nodeC.visibleAnnotations != null) {
-            nodeOut.visibleAnnotations = new ArrayList<>();
-            nodeOut.visibleAnnotations.addAll(nodeC.visibleAnnotations);
+
+        private List<T> before(String name) {
+            List<T> entries = before.get(name);
+            return entries != null ? entries : Collections.emptyList();
         }
-        if (nodeC.visibleTypeAnnotations != null) {
-            nodeOut.visibleTypeAnnotations = new ArrayList<>();
-            nodeOut.visibleTypeAnnotations.addAll(nodeC.visibleTypeAnnotations);
+    }
+
+    private static String getFieldKey(String name, String desc) {
+        return name + ";;" + desc;
+    }
+
+    private static String getMethodKey(String name, String desc) {
+        return name + desc;
+    }
+
+    private static class MergingClassVisitor extends ClassVisitor {
+        private final List<String> environments;
+        private final List<ClassNode> nodes;
+        private final Insertions<InnerClassNode> innerClasses;
+        private final Insertions<FieldNode> fields;
+        private final Insertions<MethodNode> methods;
+        private final Map<String, List<String>> sidedItfs = new LinkedHashMap<>();
+
+        private MergingClassVisitor(ClassVisitor cv, List<String> environments, List<ClassNode> nodes) {
+            super(StitchUtil.ASM_VERSION, cv);
+            this.environments = environments;
+            this.nodes = nodes;
+
+            List<List<InnerClassNode>> innerClasses = new ArrayList<>();
+            List<List<FieldNode>> fields = new ArrayList<>();
+            List<List<MethodNode>> methods = new ArrayList<>();
+
+            for (ClassNode node : nodes) {
+                innerClasses.add(node.innerClasses);
+                fields.add(node.fields);
+                methods.add(node.methods);
+            }
+
+            this.innerClasses = new Insertions<>(environments, innerClasses, (node) -> node.name);
+            this.fields = new Insertions<>(environments, fields, (node) -> getFieldKey(node.name, node.desc));
+            this.methods = new Insertions<>(environments, methods, (node) -> getMethodKey(node.name, node.desc));
         }
 
-        List<String> itfs = StitchUtil.mergePreserveOrder(nodeC.interfaces, nodeS.interfaces);
-        nodeOut.interfaces = new ArrayList<>();
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            List<String> itfs = null;
+            List<Set<String>> itfSets = new ArrayList<>();
+
+            for (ClassNode node : nodes) {
+                itfs = itfs == null ? node.interfaces : StitchUtil.mergePreserveOrder(itfs, node.interfaces);
+                itfSets.add(new HashSet<>(node.interfaces));
+            }
+
+            Map<String, String> sides = new HashMap<>();
+
+            for (String itf : itfs) {
+                List<String> present = new ArrayList<>();
 
-        List<String> clientItfs = new ArrayList<>();
-        List<String> serverItfs = new ArrayList<>();
+                for (int i = 0; i < nodes.size(); i++) {
+                    if (itfSets.get(i).contains(itf)) {
+                        present.add(environments.get(i));
+                    }
+                }
+
+                String side = getSide(present, environments);
 
-        for (String s : itfs) {
-            boolean nc = nodeC.interfaces.contains(s);
-            boolean ns = nodeS.interfaces.contains(s);
-            nodeOut.interfaces.add(s);
-            if (nc && !ns) {
-                clientItfs.add(s);
-            } else if (ns && !nc) {
-                serverItfs.add(s);
+                if (side != null) {
+                    sides.put(itf, side);
+                }
             }
+
+            // grouped by environment, in the merged order within each group
+            for (String environment : new LinkedHashSet<>(environments)) {
+                List<String> sided = new ArrayList<>();
+
+                for (String itf : itfs) {
+                    if (environment.equals(sides.get(itf))) {
+                        sided.add(itf);
+                    }
+                }
+
+                if (!sided.isEmpty()) {
+                    sidedItfs.put(environment, sided);
+                }
+            }
+
+            super.visit(version, access, name, signature, superName, itfs.toArray(new String[0]));
         }
 
-        if (!clientItfs.isEmpty() || !serverItfs.isEmpty()) {
-            AnnotationVisitor envInterfaces = nodeOut.visitAnnotation(ITF_LIST_DESCRIPTOR, false);
-            AnnotationVisitor eiArray = envInterfaces.visitArray("value");
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            for (InnerClassNode node : innerClasses.before(name)) {
+                node.accept(cv);
+            }
 
-            if (!clientItfs.isEmpty()) {
-                visitItfAnnotation(eiArray, "CLIENT", clientItfs);
+            super.visitInnerClass(name, outerName, innerName, access);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            String key = getFieldKey(name, descriptor);
+            for (FieldNode node : fields.before(key)) {
+                acceptField(node);
             }
-            if (!serverItfs.isEmpty()) {
-                visitItfAnnotation(eiArray, "SERVER", serverItfs);
+
+            FieldVisitor fv = super.visitField(access, name, descriptor, signature, value);
+            String side = fields.sides.get(key);
+
+            if (side != null) {
+                visitSideAnnotation(fv.visitAnnotation(SIDED_DESCRIPTOR, false), side);
             }
-            eiArray.visitEnd();
-            envInterfaces.visitEnd();
+
+            return fv;
         }
 
-        new Merger<InnerClassNode>(nodeC.innerClasses, nodeS.innerClasses) {
-            @Override
-            public String getName(InnerClassNode entry) {
-                return entry.name;
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            String key = getMethodKey(name, descriptor);
+            for (MethodNode node : methods.before(key)) {
+                acceptMethod(node);
             }
 
-            @Override
-            public void applySide(InnerClassNode entry, String side) {
+            MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+            String side = methods.sides.get(key);
+
+            if (side == null) {
+                // handing out the writer's own visitor lets the reader copy the method as is
+                return mv;
             }
-        }.merge(nodeOut.innerClasses);
 
-        new Merger<FieldNode>(nodeC.fields, nodeS.fields) {
-            @Override
-            public String getName(FieldNode entry) {
-                return entry.name + ";;" + entry.desc;
+            visitSideAnnotation(mv.visitAnnotation(SIDED_DESCRIPTOR, false), side);
+            // a copied method would lose the annotation, so make the reader visit it
+            return new MethodVisitor(api, mv) { };
+        }
+
+        @Override
+        public void visitEnd() {
+            for (InnerClassNode node : innerClasses.after) {
+                node.accept(cv);
             }
 
-            @Override
-            public void applySide(FieldNode entry, String side) {
-                AnnotationVisitor av = entry.visitAnnotation(SIDED_DESCRIPTOR, false);
-                visitSideAnnotation(av, side);
+            for (FieldNode node : fields.after) {
+                acceptField(node);
             }
-        }.merge(nodeOut.fields);
 
-        new Merger<MethodNode>(nodeC.methods, nodeS.methods) {
-            @Override
-            public String getName(MethodNode entry) {
-                return entry.name + entry.desc;
+            for (MethodNode node : methods.after) {
+                acceptMethod(node);
             }
 
-            @Override
-            public void applySide(MethodNode entry, String side) {
-                AnnotationVisitor av = entry.visitAnnotation(SIDED_DESCRIPTOR, false);
-                visitSideAnnotation(av, side);
+            if (!sidedItfs.isEmpty()) {
+                AnnotationVisitor envInterfaces = cv.visitAnnotation(ITF_LIST_DESCRIPTOR, false);
+                AnnotationVisitor eiArray = envInterfaces.visitArray("value");
+
+                for (Map.Entry<String, List<String>> entry : sidedItfs.entrySet()) {
+                    visitItfAnnotation(eiArray, entry.getKey(), entry.getValue());
+                }
+                eiArray.visitEnd();
+                envInterfaces.visitEnd();
             }
-        }.merge(nodeOut.methods);
 
-        nodeOut.accept(writer);
-        return writer.toByteArray();
+            super.visitEnd();
+        }
+
+        private void acceptField(FieldNode node) {
+            String side = fields.sides.get(getFieldKey(node.name, node.desc));
+
+            if (side != null) {
+                visitSideAnnotation(node.visitAnnotation(SIDED_DESCRIPTOR, false), side);
+            }
+
+            node.accept(cv);
+        }
+
+        private void acceptMethod(MethodNode node) {
+            String side = methods.sides.get(getMethodKey(node.name, node.desc));
+
+            if (side != null) {
+                visitSideAnnotation(node.visitAnnotation(SIDED_DESCRIPTOR, false), side);
+            }
+
+            node.accept(cv);
+        }
     }
 }
@@ -16,6 +16,9 @@
 
 package net.fabricmc.stitch.merge;
 
+import net.fabricmc.stitch.util.RawZipEntry;
+import net.fabricmc.stitch.util.RawZipFile;
+import net.fabricmc.stitch.util.RawZipWriter;
 import net.fabricmc.stitch.util.SnowmanClassVisitor;
 import net.fabricmc.stitch.util.StitchUtil;
 import net.fabricmc.stitch.util.SyntheticParameterClassVisitor;
@@ -25,50 +28,51 @@ import org.objectweb.asm.ClassWriter;
 
 import java.io.*;
 import java.nio.charset.Charset;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributeView;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
 
 public class JarMerger implements AutoCloseable {
-    public class Entry {
-        public final Path path;
-        public final BasicFileAttributes metadata;
-        public final byte[] data;
-
-        public Entry(Path path, BasicFileAttributes metadata, byte[] data) {
-            this.path = path;
-            this.metadata = metadata;
-            this.data = data;
-        }
-    }
-
     private static final ClassMerger CLASS_MERGER = new ClassMerger();
-    private final StitchUtil.FileSystemDelegate inputClientFs, inputServerFs, outputFs;
-    private final Path inputClient, inputServer;
-    private final Map<String, Entry> entriesClient, entriesServer;
-    private final Set<String> entriesAll;
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final int STREAM_BATCH_SIZE = 256;
+    private final List<String> environments;
+    private final List<File> inputFiles;
+    private final File outputFile;
     private boolean removeSnowmen = false;
     private boolean offsetSyntheticsParams = false;
+    private boolean normalizedComparison = false;
+    private MergeCache cache;
 
     public JarMerger(File inputClient, File inputServer, File output) throws IOException {
+        this(Arrays.asList("CLIENT", "SERVER"), Arrays.asList(inputClient, inputServer), output);
+    }
+
+    /**
+     * Merges any number of jars, each named by the environment its one-sided classes and members are
+     * annotated with, one of {@link ClassMerger#ENVIRONMENTS}. Several jars may share an environment. The first jar is the base: its manifest constant, resources and member order win,
+     * and non-Minecraft classes missing from it are treated as bundled libraries and dropped.
+     *
+     * <p>The jars are merged as a merge-join over their entries sorted by name, a batch at a time, so they are
+     * never loaded into memory as a whole. Entries are classified by the CRC and sizes in the central directories
+     * before any data is read, and entries that are the same in all jars are copied without being inflated.
+     */
+    public JarMerger(List<String> environments, List<File> inputs, File output) throws IOException {
+        if (environments.size() != inputs.size() || inputs.isEmpty()) {
+            throw new IllegalArgumentException("Need one environment for each of at least one input");
+        }
+
+        ClassMerger.checkEnvironments(environments);
+
         if (output.exists()) {
             if (!output.delete()) {
                 throw new IOException("Could not delete " + output.getName());
             }
         }
 
-        this.inputClient = (inputClientFs = StitchUtil.getJarFileSystem(inputClient, false)).get().getPath("/");
-        this.inputServer = (inputServerFs = StitchUtil.getJarFileSystem(inputServer, false)).get().getPath("/");
-        this.outputFs = StitchUtil.getJarFileSystem(output, true);
-
-        this.entriesClient = new HashMap<>();
-        this.entriesServer = new HashMap<>();
-        this.entriesAll = new TreeSet<>();
+        this.environments = environments;
+        this.inputFiles = inputs;
+        this.outputFile = output;
     }
 
     public void enableSnowmanRemoval() {
@@ -79,148 +83,303 @@ public class JarMerger implements AutoCloseable {
         offsetSyntheticsParams = true;
     }
 
+    /**
+     * Treats versions of a class that only differ in debug information or constant pool order as identical,
+     * keeping the first one as is instead of merging them.
+     */
+    public void enableNormalizedComparison() {
+        normalizedComparison = true;
+    }
+
+    /**
+     * @deprecated every merge streams its inputs now, so this does nothing.
+     */
+    @Deprecated
+    public void enableStreaming() {
+    }
+
+    /**
+     * Keeps merged classes in {@code directory}, keyed by the hashes of their inputs and the merge options,
+     * so classes that didn't change since an earlier merge aren't merged again.
+     */
+    public void enableCache(File directory) throws IOException {
+        cache = new MergeCache(directory);
+    }
+
     @Override
     public void close() throws IOException {
-        inputClientFs.close();
-        inputServerFs.close();
-        outputFs.close();
     }
 
-    private void readToMap(Map<String, Entry> map, Path input, boolean isServer) {
-        try {
-            Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path path, BasicFileAttributes attr) throws IOException {
-                    if (attr.isDirectory()) {
-                        return FileVisitResult.CONTINUE;
-                    }
+    public void merge() throws IOException {
+        List<RawZipFile> inputs = new ArrayList<>();
+
+        try (RawZipWriter writer = new RawZipWriter(outputFile)) {
+            List<List<RawZipEntry>> entries = new ArrayList<>();
+
+            for (File file : inputFiles) {
+                RawZipFile input = new RawZipFile(file);
+                inputs.add(input);
+                entries.add(getSortedFiles(input));
+            }
+
+            List<RawZipEntry[]> batch = new ArrayList<>(STREAM_BATCH_SIZE);
+            Set<String> directories = new HashSet<>();
+            int[] positions = new int[inputs.size()];
+
+            while (true) {
+                String name = null;
+
+                for (int i = 0; i < positions.length; i++) {
+                    if (positions[i] < entries.get(i).size()) {
+                        String candidate = entries.get(i).get(positions[i]).getName();
 
-                    if (!path.getFileName().toString().endsWith(".class")) {
-                        if (path.toString().equals("/META-INF/MANIFEST.MF")) {
-                            map.put("META-INF/MANIFEST.MF", new Entry(path, attr,
-                                    "Manifest-Version: 1.0\nMain-Class: net.minecraft.client.Main\n".getBytes(Charset.forName("UTF-8"))));
-                        } else {
-                            if (path.toString().startsWith("/META-INF/")) {
-                                if (path.toString().endsWith(".SF") || path.toString().endsWith(".RSA")) {
-                                    return FileVisitResult.CONTINUE;
-                                }
-                            }
-
-                            map.put(path.toString().substring(1), new Entry(path, attr, null));
+                        if (name == null || candidate.compareTo(name) < 0) {
+                            name = candidate;
                         }
-                        
-                        return FileVisitResult.CONTINUE;
                     }
+                }
 
-                    byte[] output = Files.readAllBytes(path);
-                    map.put(path.toString().substring(1), new Entry(path, attr, output));
-                    return FileVisitResult.CONTINUE;
+                if (name == null) {
+                    break;
                 }
-            });
-        } catch (IOException e) {
-            e.printStackTrace();
+
+                RawZipEntry[] present = new RawZipEntry[positions.length];
+
+                for (int i = 0; i < positions.length; i++) {
+                    if (positions[i] < entries.get(i).size() && entries.get(i).get(positions[i]).getName().equals(name)) {
+                        present[i] = entries.get(i).get(positions[i]++);
+                    }
+                }
+
+                batch.add(present);
+
+                if (batch.size() >= STREAM_BATCH_SIZE) {
+                    writeBatch(inputs, batch, writer, directories);
+                    batch.clear();
+                }
+            }
+
+            writeBatch(inputs, batch, writer, directories);
+        } finally {
+            for (RawZipFile input : inputs) {
+                input.close();
+            }
         }
     }
 
-    private void add(Entry entry) throws IOException {
-        Path outPath = outputFs.get().getPath(entry.path.toString());
-        if (outPath.getParent() != null) {
-            Files.createDirectories(outPath.getParent());
+    private static void write(RawZipWriter writer, RawZipWriter.Data data, Set<String> directories) throws IOException {
+        // the zipfs output this replaced had entries for all directories, keep that
+        String name = data.entry.getName();
+        for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+            String directory = name.substring(0, i + 1);
+
+            if (directories.add(directory)) {
+                writer.write(new RawZipEntry(directory, ZipEntry.STORED, 0, 0, 0, data.entry.getDosTime()), new byte[0]);
+            }
         }
 
-        if (entry.data != null) {
-            Files.write(outPath, entry.data, StandardOpenOption.CREATE_NEW);
-        } else {
-            Files.copy(entry.path, outPath);
+        writer.write(data);
+    }
+
+    /**
+     * Runs the enabled visitors over a Minecraft class.
+     *
+     * @param side the environment to annotate the class with, or null if it isn't one-sided
+     * @return the transformed class, or the same array if no visitor applies
+     */
+    private byte[] transformClass(byte[] data, String side) {
+        ClassWriter writer = new ClassWriter(0);
+        ClassVisitor visitor = postProcess(writer, side);
+
+        if (visitor == writer) {
+            return data;
         }
 
-        Files.getFileAttributeView(outPath, BasicFileAttributeView.class)
-                .setTimes(
-                        entry.metadata.creationTime(),
-                        entry.metadata.lastAccessTime(),
-                        entry.metadata.lastModifiedTime()
-                );
+        new ClassReader(data).accept(visitor, 0);
+        return writer.toByteArray();
     }
 
-    public void merge() throws IOException {
-        ExecutorService service = Executors.newFixedThreadPool(2);
-        service.submit(() -> readToMap(entriesClient, inputClient, false));
-        service.submit(() -> readToMap(entriesServer, inputServer, true));
-        service.shutdown();
+    /**
+     * Merges the versions of a Minecraft class and runs the enabled visitors over it, going through the cache
+     * if there is one.
+     *
+     * @param side the environment to annotate the class with, or null if it isn't one-sided
+     */
+    private byte[] mergeClass(List<String> environments, List<byte[]> classes, String side) throws IOException {
+        if (normalizedComparison && isEquivalent(classes)) {
+            return transformClass(classes.get(0), side);
+        }
+
+        String key = null;
+
+        if (cache != null) {
+            String options = "side=" + side + ",removeSnowmen=" + removeSnowmen + ",offsetSyntheticsParams=" + offsetSyntheticsParams;
+            key = cache.getKey(environments, classes, options);
+            byte[] cached = cache.get(key);
+
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        byte[] data = CLASS_MERGER.merge(environments, classes, (cv) -> postProcess(cv, side));
+
+        if (cache != null) {
+            cache.put(key, data);
+        }
+
+        return data;
+    }
+
+    private static boolean isEquivalent(List<byte[]> classes) {
+        byte[] normalized = normalize(classes.get(0));
+
+        for (int i = 1; i < classes.size(); i++) {
+            if (!Arrays.equals(normalized, normalize(classes.get(i)))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Rewrites a class without its debug attributes and with a constant pool in visiting order, so versions that
+     * only differ in line numbers, source files, local variable names or pool layout come out the same.
+     */
+    private static byte[] normalize(byte[] data) {
+        ClassWriter writer = new ClassWriter(0);
+        new ClassReader(data).accept(writer, ClassReader.SKIP_DEBUG);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Wraps the side, snowman and synthetic parameter transforms that are enabled around {@code visitor}.
+     */
+    private ClassVisitor postProcess(ClassVisitor visitor, String side) {
+        if (side != null) {
+            visitor = new ClassMerger.SidedClassVisitor(StitchUtil.ASM_VERSION, visitor, side);
+        }
+
+        if (removeSnowmen) {
+            visitor = new SnowmanClassVisitor(StitchUtil.ASM_VERSION, visitor);
+        }
+
+        if (offsetSyntheticsParams) {
+            visitor = new SyntheticParameterClassVisitor(StitchUtil.ASM_VERSION, visitor);
+        }
+
+        return visitor;
+    }
+
+    private static List<RawZipEntry> getSortedFiles(RawZipFile zip) {
+        List<RawZipEntry> entries = new ArrayList<>();
+
+        for (RawZipEntry entry : zip.getEntries()) {
+            String name = entry.getName();
+
+            if (entry.isDirectory() || (name.startsWith("META-INF/") && (name.endsWith(".SF") || name.endsWith(".RSA")))) {
+                continue;
+            }
+
+            entries.add(entry);
+        }
+
+        entries.sort(Comparator.comparing(RawZipEntry::getName));
+        return entries;
+    }
+
+    private void writeBatch(List<RawZipFile> inputs, List<RawZipEntry[]> batch,
+                            RawZipWriter writer, Set<String> directories) throws IOException {
+        List<RawZipWriter.Data> results;
+
         try {
-            service.awaitTermination(1, TimeUnit.HOURS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        entriesAll.addAll(entriesClient.keySet());
-        entriesAll.addAll(entriesServer.keySet());
-
-        List<Entry> entries = entriesAll.parallelStream().map((entry) -> {
-            boolean isClass = entry.endsWith(".class");
-            boolean isMinecraft = entriesClient.containsKey(entry) || entry.startsWith("net/minecraft") || !entry.contains("/");
-            Entry result;
-            String side = null;
-
-            Entry entry1 = entriesClient.get(entry);
-            Entry entry2 = entriesServer.get(entry);
-
-            if (entry1 != null && entry2 != null) {
-                if (Arrays.equals(entry1.data, entry2.data)) {
-                    result = entry1;
-                } else {
-                    if (isClass) {
-                        result = new Entry(entry1.path, entry1.metadata, CLASS_MERGER.merge(entry1.data, entry2.data));
-                    } else {
-                        // FIXME: More heuristics?
-                        result = entry1;
-                    }
+            results = batch.parallelStream().map((entries) -> {
+                try {
+                    return mergeEntry(inputs, entries);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-            } else if ((result = entry1) != null) {
-                side = "CLIENT";
-            } else if ((result = entry2) != null) {
-                side = "SERVER";
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        for (RawZipWriter.Data result : results) {
+            if (result != null) {
+                write(writer, result, directories);
             }
+        }
+    }
 
-            if (isClass && !isMinecraft && "SERVER".equals(side)) {
-                // Server bundles libraries, client doesn't - skip them
-                return null;
+    /**
+     * Merges the versions of one entry.
+     *
+     * @param entries the entry in each input, null for the inputs it is missing from
+     */
+    private RawZipWriter.Data mergeEntry(List<RawZipFile> inputs, RawZipEntry[] entries) throws IOException {
+        List<String> presentSides = new ArrayList<>();
+        List<Integer> present = new ArrayList<>();
+
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] != null) {
+                presentSides.add(environments.get(i));
+                present.add(i);
             }
+        }
 
-            if (result != null) {
-                if (isMinecraft && isClass) {
-                    byte[] data = result.data;
-                    ClassReader reader = new ClassReader(data);
-                    ClassWriter writer = new ClassWriter(0);
-                    ClassVisitor visitor = writer;
-
-                    if (side != null) {
-                        visitor = new ClassMerger.SidedClassVisitor(StitchUtil.ASM_VERSION, visitor, side);
-                    }
+        int first = present.get(0);
+        RawZipEntry entry = entries[first];
+        String name = entry.getName();
+        boolean isClass = name.endsWith(".class");
+        boolean isMinecraft = entries[0] != null || name.startsWith("net/minecraft") || !name.contains("/");
+        String side = ClassMerger.getSide(presentSides, environments);
+        byte[] data;
+
+        if (isClass && !isMinecraft) {
+            // Server bundles libraries, client doesn't - skip them
+            return null;
+        }
 
-                    if (removeSnowmen) {
-                        visitor = new SnowmanClassVisitor(StitchUtil.ASM_VERSION, visitor);
-                    }
+        if (name.equals(MANIFEST)) {
+            data = "Manifest-Version: 1.0\nMain-Class: net.minecraft.client.Main\n".getBytes(Charset.forName("UTF-8"));
+        } else if (present.size() > 1) {
+            boolean same = true;
 
-                    if (offsetSyntheticsParams) {
-                        visitor = new SyntheticParameterClassVisitor(StitchUtil.ASM_VERSION, visitor);
-                    }
+            for (int i : present) {
+                same &= isSameContent(entry, entries[i]);
+            }
 
-                    if (visitor != writer) {
-                        reader.accept(visitor, 0);
-                        data = writer.toByteArray();
-                        result = new Entry(result.path, result.metadata, data);
-                    }
+            if (isClass && !same) {
+                List<byte[]> classes = new ArrayList<>();
+
+                for (int i : present) {
+                    classes.add(inputs.get(i).read(entries[i]));
                 }
 
-                return result;
+                data = mergeClass(presentSides, classes, side);
+            } else if (isClass && (side != null || removeSnowmen || offsetSyntheticsParams)) {
+                data = transformClass(inputs.get(first).read(entry), side);
             } else {
-                return null;
+                // identical, or a resource where the first version wins anyway: keep the compressed data
+                return new RawZipWriter.Data(entry, inputs.get(first).readRaw(entry));
+            }
+        } else {
+            if (!isClass) {
+                // resources are never rewritten, so their compressed data can be copied as is
+                return new RawZipWriter.Data(entry, inputs.get(first).readRaw(entry));
             }
-        }).filter(Objects::nonNull).collect(Collectors.toList());
 
-        for (Entry e : entries) {
-            add(e);
+            data = transformClass(inputs.get(first).read(entry), side);
         }
+
+        return RawZipWriter.deflate(name, entry.getDosTime(), data);
+    }
+
+    /**
+     * Compares two entries by the CRC and sizes from the central directory, without reading their data.
+     */
+    private static boolean isSameContent(RawZipEntry a, RawZipEntry b) {
+        return a.getCrc() == b.getCrc() && a.getSize() == b.getSize();
     }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * An on-disk cache of merged classes, keyed by a hash of the input classes and the merge options.
+ *
+ * <p>Entries are never invalidated, a key only ever maps to one output. Changes to the merge output have to
+ * bump {@link #VERSION} so older entries stop matching.
+ */
+class MergeCache {
+    private static final String VERSION = "1";
+
+    private final Path directory;
+
+    MergeCache(File directory) throws IOException {
+        this.directory = directory.toPath();
+        Files.createDirectories(this.directory);
+    }
+
+    String getKey(List<String> environments, List<byte[]> classes, String options) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        update(digest, VERSION.getBytes(StandardCharsets.UTF_8));
+        update(digest, options.getBytes(StandardCharsets.UTF_8));
+
+        for (int i = 0; i < classes.size(); i++) {
+            update(digest, environments.get(i).getBytes(StandardCharsets.UTF_8));
+            update(digest, classes.get(i));
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b & 0xFF));
+        }
+
+        return key.toString();
+    }
+
+    private static void update(MessageDigest digest, byte[] data) {
+        // length prefixed, so the boundaries between the parts are part of the key
+        int length = data.length;
+        digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+        digest.update(data);
+    }
+
+    /**
+     * @return the cached class, or null if there is none for the key yet
+     */
+    byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(getPath(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    void put(String key, byte[] data) throws IOException {
+        Path path = getPath(key);
+        Files.createDirectories(path.getParent());
+
+        // written aside and moved in place, so concurrent merges never see a partial entry
+        Path temp = Files.createTempFile(path.getParent(), key, ".tmp");
+
+        try {
+            Files.write(temp, data);
+
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path getPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".class");
+    }
+}
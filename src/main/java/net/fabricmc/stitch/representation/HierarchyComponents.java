@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.representation;
+
+import java.util.*;
+
+/**
+ * Partitions the classes of a jar into the connected components of its class hierarchy.
+ * Two classes end up in the same component if one extends or implements the other, or if
+ * one is nested inside the other - so a top-level class always shares its component with
+ * all of its inner classes.
+ */
+public class HierarchyComponents {
+    private final Map<JarClassEntry, Integer> componentIds = new IdentityHashMap<>();
+    private final List<List<JarClassEntry>> components = new ArrayList<>();
+
+    public HierarchyComponents(JarRootEntry jar) {
+        List<JarClassEntry> classes = new ArrayList<>();
+        Map<JarClassEntry, Integer> indices = new IdentityHashMap<>();
+        collect(jar.getClasses(), classes, indices);
+
+        int[] parents = new int[classes.size()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+
+        for (int i = 0; i < classes.size(); i++) {
+            JarClassEntry c = classes.get(i);
+            union(parents, i, indices.get(c.getSuperClass(jar)));
+
+            for (JarClassEntry itf : c.getInterfaces(jar)) {
+                union(parents, i, indices.get(itf));
+            }
+
+            for (JarClassEntry inner : c.getInnerClasses()) {
+                union(parents, i, indices.get(inner));
+            }
+        }
+
+        Map<Integer, Integer> rootToComponent = new HashMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            int id = rootToComponent.computeIfAbsent(find(parents, i), (r) -> {
+                components.add(new ArrayList<>());
+                return components.size() - 1;
+            });
+
+            components.get(id).add(classes.get(i));
+            componentIds.put(classes.get(i), id);
+        }
+    }
+
+    private static void collect(Collection<JarClassEntry> entries, List<JarClassEntry> classes, Map<JarClassEntry, Integer> indices) {
+        for (JarClassEntry c : entries) {
+            indices.put(c, classes.size());
+            classes.add(c);
+            collect(c.getInnerClasses(), classes, indices);
+        }
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+
+        return i;
+    }
+
+    private static void union(int[] parents, int a, Integer b) {
+        if (b == null) {
+            return;
+        }
+
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        if (rootA != rootB) {
+            parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    /**
+     * @return the id of the component containing the given class, or -1 if it isn't part of the jar
+     */
+    public int getComponentId(JarClassEntry c) {
+        return componentIds.getOrDefault(c, -1);
+    }
+
+    /**
+     * @return all classes of the component, top-level classes before their inner classes, in sorted order
+     */
+    public List<JarClassEntry> getClasses(int componentId) {
+        return Collections.unmodifiableList(components.get(componentId));
+    }
+
+    public int size() {
+        return components.size();
+    }
+}
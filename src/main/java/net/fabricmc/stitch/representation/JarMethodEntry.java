@@ -24,6 +24,7 @@ import java.util.*;
 public class JarMethodEntry extends AbstractJarEntry {
     protected String desc;
     protected String signature;
+    int groupId = -1;
 
     protected JarMethodEntry(int access, String name, String desc, String signature) {
         super(name);
@@ -40,6 +41,14 @@ public class JarMethodEntry extends AbstractJarEntry {
         return signature;
     }
 
+    /**
+     * @return the id of the override group this method belongs to, shared by all joined entries
+     * of the same method, or -1 if the jar hasn't been read yet
+     */
+    public int getGroupId() {
+        return groupId;
+    }
+
     @Override
     protected String getKey() {
         return super.getKey() + desc;
@@ -272,6 +272,15 @@ public class JarReader {
             System.err.println("Joined " + joinedMethods + " MethodEntries (" + uniqueMethods + " unique, " + traversedClasses.size() + " classes).");
         }
 
+        // joined entries are the same object, so each override group gets exactly one id
+        for (JarClassEntry entry : jar.getAllClasses()) {
+            for (JarMethodEntry m : entry.getMethods()) {
+                if (m.groupId < 0) {
+                    m.groupId = jar.methodGroupCount++;
+                }
+            }
+        }
+
         System.err.println("Collecting additional information...");
 
         // Stage 4: collect additional info
@@ -24,6 +24,7 @@ public class JarRootEntry extends AbstractJarEntry implements ClassStorage {
     final File file;
     final Map<String, JarClassEntry> classTree;
     final List<JarClassEntry> allClasses;
+    int methodGroupCount;
 
     public JarRootEntry(File file) {
         super(file.getName());
@@ -80,4 +81,11 @@ public class JarRootEntry extends AbstractJarEntry implements ClassStorage {
     public Collection<JarClassEntry> getAllClasses() {
         return Collections.unmodifiableList(allClasses);
     }
+
+    /**
+     * @return the number of method override groups, all group ids are below this
+     */
+    public int getMethodGroupCount() {
+        return methodGroupCount;
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.representation;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A jar that is only read the first time one of its classes is asked for. Useful for jars that
+ * most runs never look into, like the old jar of an intermediary update.
+ */
+public class LazyClassStorage implements ClassStorage {
+    private final File file;
+    private JarRootEntry jar;
+
+    public LazyClassStorage(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public JarClassEntry getClass(String name, boolean create) {
+        return getJar().getClass(name, create);
+    }
+
+    public boolean isLoaded() {
+        return jar != null;
+    }
+
+    public synchronized JarRootEntry getJar() {
+        if (jar == null) {
+            System.err.println("Loading " + file.getName() + "...");
+            JarRootEntry jarEntry = new JarRootEntry(file);
+
+            try {
+                JarReader reader = new JarReader(jarEntry);
+                reader.apply();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read " + file, e);
+            }
+
+            jar = jarEntry;
+        }
+
+        return jar;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.util;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs a chain of class visitors over every class of a jar.
+ *
+ * <p>Entries are read by random access and transformed and compressed on a thread pool, then written in the
+ * order of the input jar, so the output only depends on the input. Resources are copied with their compressed
+ * data as is.
+ */
+public class JarTransformer {
+    private final List<UnaryOperator<ClassVisitor>> visitors = new ArrayList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Adds a visitor to the chain, visitors added first see the class first.
+     *
+     * @param factory creates the visitor around the next visitor of the chain
+     */
+    public JarTransformer addVisitor(UnaryOperator<ClassVisitor> factory) {
+        visitors.add(factory);
+        return this;
+    }
+
+    public JarTransformer setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public byte[] transform(byte[] data) {
+        ClassReader reader = new ClassReader(data);
+        ClassWriter writer = new ClassWriter(0);
+        ClassVisitor visitor = writer;
+
+        for (int i = visitors.size() - 1; i >= 0; i--) {
+            visitor = visitors.get(i).apply(visitor);
+        }
+
+        reader.accept(visitor, 0);
+        return writer.toByteArray();
+    }
+
+    public void transform(File input, File output) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // bounds the number of finished entries held in memory
+        int window = threads * 4;
+
+        try (RawZipFile zip = new RawZipFile(input); RawZipWriter writer = new RawZipWriter(output)) {
+            Deque<Future<RawZipWriter.Data>> pending = new ArrayDeque<>();
+
+            for (RawZipEntry entry : zip.getEntries()) {
+                if (!visitors.isEmpty() && isSignature(entry.getName())) {
+                    continue;
+                }
+
+                pending.add(executor.submit(() -> process(zip, entry)));
+
+                if (pending.size() >= window) {
+                    writer.write(get(pending.poll()));
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                writer.write(get(pending.poll()));
+            }
+        } catch (IOException | RuntimeException e) {
+            // don't leave a truncated jar behind
+            output.delete();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean isSignature(String name) {
+        // transformed classes would no longer match the signatures
+        return name.startsWith("META-INF/") && (name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC"));
+    }
+
+    private RawZipWriter.Data process(RawZipFile zip, RawZipEntry entry) throws IOException {
+        if (visitors.isEmpty() || !entry.getName().endsWith(".class")) {
+            return new RawZipWriter.Data(entry, zip.readRaw(entry));
+        }
+
+        return RawZipWriter.deflate(entry.getName(), entry.getDosTime(), transform(zip.read(entry)));
+    }
+
+    private static RawZipWriter.Data get(Future<RawZipWriter.Data> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to transform entry", e.getCause());
+        }
+    }
+}
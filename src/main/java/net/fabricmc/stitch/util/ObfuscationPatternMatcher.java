@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches class names against a set of obfuscation patterns at once.
+ *
+ * <p>Patterns which are just a literal prefix followed by {@code .*}, as well as the default
+ * "no package" pattern, are checked without touching the regex engine. All other patterns are
+ * combined into a single alternation, and if every one of them starts with a literal prefix, names
+ * which start with none of those are rejected up front.
+ *
+ * <p>Patterns are expected to be compiled without flags. Instances are thread-safe, each thread
+ * resets its own {@link Matcher} instead of allocating one per name.
+ */
+public final class ObfuscationPatternMatcher {
+    private static final String META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+    private final boolean packageless;
+    private final String[] prefixes;
+    private final String[] requiredPrefixes;
+    private final Pattern pattern;
+    private final ThreadLocal<Matcher> matcher;
+
+    public ObfuscationPatternMatcher(List<Pattern> patterns) {
+        boolean packageless = false;
+        List<String> prefixes = new ArrayList<>();
+        List<String> requiredPrefixes = new ArrayList<>();
+        List<Pattern> remaining = new ArrayList<>();
+
+        for (Pattern pattern : patterns) {
+            String body = stripAnchors(pattern.pattern());
+
+            if (body.equals("[^/]*")) {
+                packageless = true;
+                continue;
+            }
+
+            String prefix = getLiteralPrefix(body);
+            if (prefix != null && body.endsWith(".*") && getLiteralLength(body) == body.length() - 2) {
+                prefixes.add(prefix);
+                continue;
+            }
+
+            if (requiredPrefixes != null) {
+                if (prefix == null || prefix.isEmpty()) {
+                    requiredPrefixes = null;
+                } else {
+                    requiredPrefixes.add(prefix);
+                }
+            }
+
+            remaining.add(pattern);
+        }
+
+        this.packageless = packageless;
+        this.prefixes = prefixes.toArray(new String[0]);
+
+        if (!remaining.isEmpty()) {
+            this.pattern = remaining.size() == 1 ? remaining.get(0) : combine(remaining);
+            this.requiredPrefixes = requiredPrefixes != null ? requiredPrefixes.toArray(new String[0]) : null;
+        } else {
+            this.pattern = null;
+            this.requiredPrefixes = null;
+        }
+
+        Pattern pattern = this.pattern;
+        this.matcher = pattern != null ? ThreadLocal.withInitial(() -> pattern.matcher("")) : null;
+    }
+
+    private static Pattern combine(List<Pattern> patterns) {
+        StringBuilder combined = new StringBuilder();
+
+        for (Pattern pattern : patterns) {
+            if (combined.length() > 0) {
+                combined.append('|');
+            }
+
+            combined.append("(?:").append(pattern.pattern()).append(')');
+        }
+
+        return Pattern.compile(combined.toString());
+    }
+
+    private static String stripAnchors(String regex) {
+        int start = regex.startsWith("^") ? 1 : 0;
+        int end = regex.length();
+
+        if (end > start && regex.endsWith("$") && !regex.endsWith("\\$")) {
+            end--;
+        }
+
+        return regex.substring(start, end);
+    }
+
+    /**
+     * @return the number of characters at the start of the regex which only match themselves
+     */
+    private static int getLiteralLength(String regex) {
+        int i = 0;
+
+        while (i < regex.length() && META_CHARACTERS.indexOf(regex.charAt(i)) < 0) {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * @return the literal text every match starts with, or null if the regex may match other starts
+     */
+    private static String getLiteralPrefix(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return null;
+        }
+
+        int length = getLiteralLength(regex);
+        if (length < regex.length() && "?*{".indexOf(regex.charAt(length)) >= 0) {
+            // the last literal character is optional
+            length = Math.max(0, length - 1);
+        }
+
+        return regex.substring(0, length);
+    }
+
+    private static boolean startsWithAny(String name, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return whether {@code .*} matches the rest of the name, it doesn't match line terminators without DOTALL
+     */
+    private static boolean hasNoLineTerminator(String name, int start) {
+        for (int i = start; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public boolean matches(String name) {
+        if (packageless && name.indexOf('/') < 0) {
+            return true;
+        }
+
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix) && hasNoLineTerminator(name, prefix.length())) {
+                return true;
+            }
+        }
+
+        if (pattern == null || (requiredPrefixes != null && !startsWithAny(name, requiredPrefixes))) {
+            return false;
+        }
+
+        return matcher.get().reset(name).matches();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.util;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.ZipEntry;
+
+/**
+ * The metadata of a zip entry as stored in the central directory, enough to copy its compressed data
+ * from one archive to another without inflating it.
+ */
+public final class RawZipEntry {
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final int dosTime;
+    final long localHeaderOffset;
+
+    public RawZipEntry(String name, int method, long crc, long compressedSize, long size, int dosTime) {
+        this(name, method, crc, compressedSize, size, dosTime, -1);
+    }
+
+    RawZipEntry(String name, int method, long crc, long compressedSize, long size, int dosTime, long localHeaderOffset) {
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.dosTime = dosTime;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     */
+    public int getMethod() {
+        return method;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the modification time in MS-DOS format, the time in the low and the date in the high 16 bits
+     */
+    public int getDosTime() {
+        return dosTime;
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    /**
+     * Converts a Java timestamp to MS-DOS format in the local time zone, like {@link ZipEntry#setTime(long)}.
+     * Times before 1980 are clamped to its start.
+     */
+    public static int toDosTime(long time) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+
+    public RawZipEntry withName(String name) {
+        return new RawZipEntry(name, method, crc, compressedSize, size, dosTime);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
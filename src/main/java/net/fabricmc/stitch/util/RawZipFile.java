@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Random access to the entries of a zip file, which can hand out their compressed data as is.
+ *
+ * <p>Entries are read from the central directory, so data descriptors are handled, but zip64 archives and
+ * split archives are not. All reads are positional, any number of threads may read entries at once.
+ */
+public class RawZipFile implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int END_HEADER_SIZE = 22;
+
+    private final FileChannel channel;
+    private final List<RawZipEntry> entries;
+    private final Map<String, RawZipEntry> entryMap;
+
+    public RawZipFile(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+            this.entries = readCentralDirectory();
+        } catch (IOException e) {
+            channel.close();
+            throw new ZipException(file + ": " + e.getMessage());
+        }
+
+        this.entryMap = new HashMap<>();
+        for (RawZipEntry entry : entries) {
+            entryMap.putIfAbsent(entry.getName(), entry);
+        }
+    }
+
+    private List<RawZipEntry> readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_HEADER_SIZE + 0xFFFF);
+        ByteBuffer tail = read(fileSize - tailSize, tailSize);
+
+        int end = -1;
+        for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+
+        if (end < 0) {
+            throw new IOException("no end of central directory");
+        }
+
+        int count = tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+            throw new IOException("zip64 is not supported");
+        }
+
+        ByteBuffer directory = read(directoryOffset, (int) directorySize);
+        List<RawZipEntry> entries = new ArrayList<>(count);
+
+        while (directory.remaining() >= 46 && directory.getInt(directory.position()) == CENTRAL_HEADER) {
+            int pos = directory.position();
+            int flags = directory.getShort(pos + 8) & 0xFFFF;
+            int method = directory.getShort(pos + 10) & 0xFFFF;
+            int dosTime = directory.getInt(pos + 12);
+            long crc = directory.getInt(pos + 16) & 0xFFFFFFFFL;
+            long compressedSize = directory.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = directory.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+            int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+            int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+            long offset = directory.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            if ((flags & 1) != 0) {
+                throw new IOException("encrypted entries are not supported");
+            }
+
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+                throw new IOException("zip64 is not supported");
+            }
+
+            byte[] name = new byte[nameLength];
+            directory.position(pos + 46);
+            directory.get(name);
+            directory.position(pos + 46 + nameLength + extraLength + commentLength);
+
+            entries.add(new RawZipEntry(new String(name, StandardCharsets.UTF_8), method, crc, compressedSize, size, dosTime, offset));
+        }
+
+        if (entries.size() != count) {
+            throw new IOException("expected " + count + " entries, found " + entries.size());
+        }
+
+        return entries;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return all entries in the order of the central directory
+     */
+    public List<RawZipEntry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public RawZipEntry getEntry(String name) {
+        return entryMap.get(name);
+    }
+
+    /**
+     * @return the data of the entry as stored in the archive, compressed if the entry is
+     */
+    public byte[] readRaw(RawZipEntry entry) throws IOException {
+        ByteBuffer header = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new ZipException("bad local header for " + entry);
+        }
+
+        // the local extra field may differ from the central one
+        long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        return read(dataOffset, (int) entry.getCompressedSize()).array();
+    }
+
+    /**
+     * @return the uncompressed data of the entry
+     */
+    public byte[] read(RawZipEntry entry) throws IOException {
+        byte[] raw = readRaw(entry);
+
+        if (entry.getMethod() == ZipEntry.STORED) {
+            return raw;
+        } else if (entry.getMethod() != ZipEntry.DEFLATED) {
+            throw new ZipException("unsupported compression method " + entry.getMethod() + " for " + entry);
+        }
+
+        byte[] data = new byte[(int) entry.getSize()];
+        Inflater inflater = new Inflater(true);
+
+        try {
+            inflater.setInput(raw);
+            int length = 0;
+
+            while (length < data.length && !inflater.finished()) {
+                int read = inflater.inflate(data, length, data.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                length += read;
+            }
+
+            if (length != data.length) {
+                throw new ZipException("bad size for " + entry);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("bad data for " + entry + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip file from entries whose data is already compressed, such as entries copied as is from a
+ * {@link RawZipFile} or compressed ahead of time on other threads with {@link #deflate(String, int, byte[])}.
+ * Entries are written in the order they are added.
+ */
+public class RawZipWriter implements Closeable {
+    private static class Written {
+        private final RawZipEntry entry;
+        private final byte[] name;
+        private final long offset;
+
+        private Written(RawZipEntry entry, byte[] name, long offset) {
+            this.entry = entry;
+            this.name = name;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * An entry together with its compressed data.
+     */
+    public static class Data {
+        public final RawZipEntry entry;
+        public final byte[] raw;
+
+        public Data(RawZipEntry entry, byte[] raw) {
+            this.entry = entry;
+            this.raw = raw;
+        }
+    }
+
+    private final OutputStream out;
+    private final List<Written> written = new ArrayList<>();
+    private final byte[] buffer = new byte[46];
+    private long offset;
+
+    public RawZipWriter(File file) throws IOException {
+        this.out = new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    /**
+     * Compresses data for an entry, this is safe to call from any thread.
+     */
+    public static Data deflate(String name, int dosTime, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        if (data.length == 0) {
+            return new Data(new RawZipEntry(name, ZipEntry.STORED, crc.getValue(), 0, 0, dosTime), data);
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        byte[] chunk = new byte[8192];
+
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                int length = deflater.deflate(chunk);
+                compressed.write(chunk, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        byte[] raw = compressed.toByteArray();
+        return new Data(new RawZipEntry(name, ZipEntry.DEFLATED, crc.getValue(), raw.length, data.length, dosTime), raw);
+    }
+
+    public void write(Data data) throws IOException {
+        write(data.entry, data.raw);
+    }
+
+    /**
+     * Writes an entry, the data has to be compressed with the method of the entry already.
+     */
+    public void write(RawZipEntry entry, byte[] raw) throws IOException {
+        if (raw.length != entry.getCompressedSize()) {
+            throw new IllegalArgumentException("Data of " + entry + " does not match its compressed size");
+        }
+
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        written.add(new Written(entry, name, offset));
+
+        putInt(0, 0x04034b50);
+        putShort(4, 20);
+        putShort(6, getFlags(entry));
+        putShort(8, entry.getMethod());
+        putInt(10, entry.getDosTime());
+        putInt(14, (int) entry.getCrc());
+        putInt(18, (int) entry.getCompressedSize());
+        putInt(22, (int) entry.getSize());
+        putShort(26, name.length);
+        putShort(28, 0);
+        writeBuffer(30);
+        writeBytes(name);
+        writeBytes(raw);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (written.size() >= 0xFFFF || offset >= 0xFFFFFFFFL) {
+                throw new IOException("zip64 is not supported");
+            }
+
+            long directoryOffset = offset;
+
+            for (Written w : written) {
+                RawZipEntry entry = w.entry;
+                putInt(0, 0x02014b50);
+                putShort(4, 20);
+                putShort(6, 20);
+                putShort(8, getFlags(entry));
+                putShort(10, entry.getMethod());
+                putInt(12, entry.getDosTime());
+                putInt(16, (int) entry.getCrc());
+                putInt(20, (int) entry.getCompressedSize());
+                putInt(24, (int) entry.getSize());
+                putShort(28, w.name.length);
+                putShort(30, 0);
+                putShort(32, 0);
+                putShort(34, 0);
+                putShort(36, 0);
+                putInt(38, entry.isDirectory() ? 0x10 : 0);
+                putInt(42, (int) w.offset);
+                writeBuffer(46);
+                writeBytes(w.name);
+            }
+
+            putInt(0, 0x06054b50);
+            putShort(4, 0);
+            putShort(6, 0);
+            putShort(8, written.size());
+            putShort(10, written.size());
+            putInt(12, (int) (offset - directoryOffset));
+            putInt(16, (int) directoryOffset);
+            putShort(20, 0);
+            writeBuffer(22);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int getFlags(RawZipEntry entry) {
+        // bit 11 marks UTF-8 names, only set when needed like ZipOutputStream does
+        for (int i = 0; i < entry.getName().length(); i++) {
+            if (entry.getName().charAt(i) >= 0x80) {
+                return 0x800;
+            }
+        }
+
+        return 0;
+    }
+
+    private void putShort(int index, int value) {
+        buffer[index] = (byte) value;
+        buffer[index + 1] = (byte) (value >>> 8);
+    }
+
+    private void putInt(int index, int value) {
+        putShort(index, value);
+        putShort(index + 2, value >>> 16);
+    }
+
+    private void writeBuffer(int length) throws IOException {
+        out.write(buffer, 0, length);
+        offset += length;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        offset += bytes.length;
+    }
+}
@@ -96,27 +96,47 @@ public final class StitchUtil {
         return Collections.newSetFromMap(new IdentityHashMap<>());
     }
 
+    /**
+     * Merges two orderings of mostly the same names into one that keeps the relative order of both:
+     * common runs are emitted once, and names only one list has are emitted where that list has them.
+     *
+     * <p>Names present in both lists but in a different order are emitted at their position in
+     * {@code first} and skipped when reached in {@code second}. Runs in linear time.
+     */
     public static List<String> mergePreserveOrder(List<String> first, List<String> second) {
-        List<String> out = new ArrayList<>();
+        Set<String> inFirst = new HashSet<>(first);
+        Set<String> inSecond = new HashSet<>(second);
+        Set<String> emitted = new HashSet<>();
+        List<String> out = new ArrayList<>(first.size() + second.size());
         int i = 0;
         int j = 0;
 
         while (i < first.size() || j < second.size()) {
-            while (i < first.size() && j < second.size()
-                    && first.get(i).equals(second.get(j))) {
-                out.add(first.get(i));
+            String a = i < first.size() ? first.get(i) : null;
+            String b = j < second.size() ? second.get(j) : null;
+
+            if (a != null && emitted.contains(a)) {
                 i++;
+            } else if (b != null && emitted.contains(b)) {
                 j++;
-            }
-
-            while (i < first.size() && !second.contains(first.get(i))) {
-                out.add(first.get(i));
+            } else if (a != null && a.equals(b)) {
+                out.add(a);
+                emitted.add(a);
                 i++;
-            }
-
-            while (j < second.size() && !first.contains(second.get(j))) {
-                out.add(second.get(j));
                 j++;
+            } else if (a != null && !inSecond.contains(a)) {
+                out.add(a);
+                emitted.add(a);
+                i++;
+            } else if (b != null && !inFirst.contains(b)) {
+                out.add(b);
+                emitted.add(b);
+                j++;
+            } else {
+                // both are shared but come in a different order, the first list's order wins
+                out.add(a);
+                emitted.add(a);
+                i++;
             }
         }
 
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Builds small obfuscated jars for the intermediary tests.
+ */
+public class Jars {
+	/**
+	 * Creates an abstract class with an int field {@code a} and the given abstract methods, each written as
+	 * name and descriptor, like {@code a()V}.
+	 */
+	public static byte[] createClass(String name, String superName, String... methods) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, superName, null);
+		writer.visitField(Opcodes.ACC_PUBLIC, "a", "I", null, null).visitEnd();
+
+		for (String method : methods) {
+			int descStart = method.indexOf('(');
+			writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, method.substring(0, descStart), method.substring(descStart), null, null).visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	public static void write(Path file, byte[]... classes) throws IOException {
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(file))) {
+			for (byte[] data : classes) {
+				out.putNextEntry(new JarEntry(new ClassReader(data).getClassName() + ".class"));
+				out.write(data);
+			}
+		}
+	}
+
+	public static void delete(Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.mappings.EntryTriple;
+
+public class TestGenMap {
+	private static final String TINY_V1 = String.join("\n",
+					"v1\tofficial\tintermediary",
+					"# INTERMEDIARY-COUNTER class 3",
+					"FIELD\ta\tLb;\ta\tfield_1",
+					"CLASS\ta\tnet/minecraft/class_1",
+					"METHOD\ta\t(Lb;[La;)Lc;\ta\tmethod_1",
+					"CLASS\tb\tnet/minecraft/class_2",
+					"");
+
+	@Test
+	public void tinyV1DescriptorsAreInTheirSidesNamespace() throws IOException {
+		GenMap map = new GenMap();
+		List<String> comments = new ArrayList<>();
+		map.loadTinyV1(new BufferedReader(new StringReader(TINY_V1)), "official", "intermediary", comments::add);
+
+		Assertions.assertEquals("net/minecraft/class_1", map.getClass("a"));
+		Assertions.assertEquals(new EntryTriple("net/minecraft/class_1", "field_1", "Lnet/minecraft/class_2;"), map.getField("a", "a", "Lb;"));
+		// classes without a mapping keep their name
+		Assertions.assertEquals(new EntryTriple("net/minecraft/class_1", "method_1", "(Lnet/minecraft/class_2;[Lnet/minecraft/class_1;)Lc;"),
+						map.getMethod("a", "a", "(Lb;[La;)Lc;"));
+		Assertions.assertNull(map.getMethod("a", "a", "()V"));
+		Assertions.assertEquals(1, comments.size());
+	}
+
+	@Test
+	public void tinyV1NeedsTheFirstNamespace() {
+		GenMap map = new GenMap();
+
+		Assertions.assertThrows(IllegalArgumentException.class,
+						() -> map.loadTinyV1(new BufferedReader(new StringReader(TINY_V1)), "intermediary", "official", (line) -> { }));
+	}
+}
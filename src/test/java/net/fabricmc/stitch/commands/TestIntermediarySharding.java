@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.stitch.representation.JarReader;
+import net.fabricmc.stitch.representation.JarRootEntry;
+
+public class TestIntermediarySharding {
+	private static final List<String> CLASSES = Arrays.asList("a", "b", "c", "d", "e");
+
+	private Path dir;
+	private Path jar;
+
+	@BeforeEach
+	public void createJar() throws IOException {
+		dir = Files.createTempDirectory("stitch-shards");
+		jar = dir.resolve("test.jar");
+
+		// three hierarchy components: a and b, c and e, d
+		Jars.write(jar,
+						Jars.createClass("a", "java/lang/Object", "a()V"),
+						Jars.createClass("b", "a", "a()V", "b()V"),
+						Jars.createClass("c", "java/lang/Object", "c()V"),
+						Jars.createClass("d", "java/lang/Object", "d()V"),
+						Jars.createClass("e", "c", "e()V"));
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		Jars.delete(dir);
+	}
+
+	private JarRootEntry readJar() throws IOException {
+		JarRootEntry entry = new JarRootEntry(jar.toFile());
+		new JarReader(entry).apply();
+		return entry;
+	}
+
+	private List<IntermediaryShardPlan> partition(int shards, Map<String, Integer> counters) throws IOException {
+		return IntermediaryShardPlan.partition(readJar(), shards, counters, new GenState().createObfuscatedMatcher());
+	}
+
+	@Test
+	public void plansCoverWholeComponentsWithDisjointRanges() throws IOException {
+		Map<String, Integer> counters = new HashMap<>();
+		counters.put("class", 10);
+		List<IntermediaryShardPlan> plans = partition(2, counters);
+
+		Assertions.assertEquals(2, plans.size());
+		List<String> all = new ArrayList<>();
+
+		for (IntermediaryShardPlan plan : plans) {
+			List<String> classes = plan.getClasses();
+			List<String> sorted = new ArrayList<>(classes);
+			Collections.sort(sorted);
+
+			Assertions.assertEquals(sorted, classes, "jar order");
+			Assertions.assertEquals(classes.contains("a"), classes.contains("b"));
+			Assertions.assertEquals(classes.contains("c"), classes.contains("e"));
+			all.addAll(classes);
+		}
+
+		Collections.sort(all);
+		Assertions.assertEquals(CLASSES, all);
+
+		// one value per named class, field and method, b.a() overrides a.a() and takes its name
+		Map<String, Integer> expected = new HashMap<>();
+		expected.put("class", 5);
+		expected.put("field", 5);
+		expected.put("method", 5);
+
+		for (String kind : IntermediaryShardPlan.COUNTER_KINDS) {
+			int next = kind.equals("class") ? 10 : 1;
+
+			for (IntermediaryShardPlan plan : plans) {
+				Assertions.assertEquals(next, plan.getStart(kind), kind);
+				Assertions.assertTrue(plan.getEnd(kind) >= plan.getStart(kind), kind);
+				next = plan.getEnd(kind);
+			}
+
+			Assertions.assertEquals(expected.get(kind) + (kind.equals("class") ? 10 : 1), next, kind);
+		}
+	}
+
+	@Test
+	public void moreShardsThanComponentsLeavesSomeEmpty() throws IOException {
+		List<IntermediaryShardPlan> plans = partition(5, Collections.emptyMap());
+
+		Assertions.assertEquals(2, plans.stream().filter(IntermediaryShardPlan::isEmpty).count());
+
+		for (IntermediaryShardPlan plan : plans) {
+			if (plan.isEmpty()) {
+				for (String kind : IntermediaryShardPlan.COUNTER_KINDS) {
+					Assertions.assertEquals(plan.getStart(kind), plan.getEnd(kind));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void planRoundTrip() throws IOException {
+		File file = dir.resolve("shard.plan").toFile();
+
+		for (IntermediaryShardPlan plan : partition(2, Collections.emptyMap())) {
+			plan.write(file);
+			IntermediaryShardPlan read = IntermediaryShardPlan.read(file);
+
+			Assertions.assertEquals(plan.getClasses(), read.getClasses());
+			for (String kind : IntermediaryShardPlan.COUNTER_KINDS) {
+				Assertions.assertEquals(plan.getStart(kind), read.getStart(kind));
+				Assertions.assertEquals(plan.getEnd(kind), read.getEnd(kind));
+			}
+		}
+
+		Files.write(file.toPath(), Arrays.asList("counter\tclass\t1\t2", "counter\tfield\t1\t2", "class\ta"), StandardCharsets.UTF_8);
+		Assertions.assertThrows(IOException.class, () -> IntermediaryShardPlan.read(file));
+
+		Files.write(file.toPath(), Arrays.asList("counter\tclass\t1\t2", "counter\tfield\t1\t2", "counter\tmethod\t1\t2", "bogus"), StandardCharsets.UTF_8);
+		Assertions.assertThrows(IOException.class, () -> IntermediaryShardPlan.read(file));
+	}
+
+	@Test
+	public void workerStaysInItsRange() throws Exception {
+		File plan = dir.resolve("shard.plan").toFile();
+		Files.write(plan.toPath(), Arrays.asList("counter\tclass\t1\t2", "counter\tfield\t1\t100", "counter\tmethod\t1\t100", "class\ta", "class\tb"), StandardCharsets.UTF_8);
+
+		RuntimeException e = Assertions.assertThrows(RuntimeException.class,
+						() -> new CommandGenerateIntermediaryShard().run(new String[] {jar.toString(), plan.toString(), dir.resolve("shard.tiny").toString()}));
+		Assertions.assertTrue(e.getMessage().contains("overran its class counter range"), e.getMessage());
+	}
+
+	@Test
+	public void singleShardMatchesUnshardedRun() throws Exception {
+		Path sharded = dir.resolve("sharded.tiny");
+		Path unsharded = dir.resolve("unsharded.tiny");
+
+		new CommandGenerateIntermediarySharded().run(new String[] {jar.toString(), sharded.toString(), "-s", "1"});
+		new CommandGenerateIntermediary().run(new String[] {jar.toString(), unsharded.toString()});
+
+		Assertions.assertEquals(Files.readAllLines(unsharded, StandardCharsets.UTF_8), Files.readAllLines(sharded, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void shardsNameEverythingOnce() throws Exception {
+		Path mappings = dir.resolve("mappings.tiny");
+		new CommandGenerateIntermediarySharded().run(new String[] {jar.toString(), mappings.toString(), "-s", "3"});
+
+		GenMap map = new GenMap();
+		GenState.loadMappings(map, mappings.toFile(), "official", "intermediary");
+		Set<String> names = new HashSet<>();
+
+		for (String c : CLASSES) {
+			Assertions.assertTrue(names.add(map.getClass(c)), c);
+			Assertions.assertTrue(names.add(map.getField(c, "a", "I").getName()), c);
+		}
+
+		for (String method : new String[] {"a.a", "b.b", "c.c", "d.d", "e.e"}) {
+			String[] parts = method.split("\\.");
+			Assertions.assertTrue(names.add(map.getMethod(parts[0], parts[1], "()V").getName()), method);
+		}
+
+		// the counters continue after every name any shard allocated
+		GenState state = new GenState();
+		state.readCounters(mappings.toFile());
+		for (String name : names) {
+			String kind = name.startsWith("field_") ? "field" : name.startsWith("method_") ? "method" : "class";
+			int value = Integer.parseInt(name.substring(name.lastIndexOf('_') + 1));
+			Assertions.assertTrue(value < state.getCounters().get(kind), name);
+		}
+
+		// a second run over the same target keeps every name
+		List<String> before = Files.readAllLines(mappings, StandardCharsets.UTF_8);
+		new CommandGenerateIntermediarySharded().run(new String[] {jar.toString(), mappings.toString(), "-s", "2"});
+		Assertions.assertEquals(before, Files.readAllLines(mappings, StandardCharsets.UTF_8));
+
+		try (Stream<Path> files = Files.list(dir)) {
+			Assertions.assertFalse(files.anyMatch((file) -> file.getFileName().toString().endsWith(".tmp")));
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+public class TestJarMatcher {
+	private Path dir;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		dir = Files.createTempDirectory("stitch-match");
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		Jars.delete(dir);
+	}
+
+	/**
+	 * Creates a class with the fields {@code a} and {@code b}, as far as types are given.
+	 */
+	private static byte[] createClass(String name, String... fieldDescs) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+
+		for (int i = 0; i < fieldDescs.length; i++) {
+			writer.visitField(Opcodes.ACC_PUBLIC, i == 0 ? "a" : "b", fieldDescs[i], null, null).visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Writes a jar version in which {@code p} and {@code q} only differ in the types of their fields, {@code r} and
+	 * {@code s}, and {@code t} and {@code u} are exactly the same.
+	 */
+	private Path writeJar(String fileName, String p, String q, String r, String s, String t, String u) throws IOException {
+		Path jar = dir.resolve(fileName);
+		Jars.write(jar,
+						createClass(p, "L" + r + ";"),
+						createClass(q, "L" + s + ";"),
+						createClass(r, "I"),
+						createClass(s, "J"),
+						createClass(t, "Z"),
+						createClass(u, "Z"),
+						createClass("net/minecraft/Main", "L" + p + ";"));
+		return jar;
+	}
+
+	private List<String> match() throws IOException {
+		Path oldJar = writeJar("old.jar", "p", "q", "r", "s", "t", "u");
+		Path newJar = writeJar("new.jar", "c", "d", "a", "b", "e", "f");
+
+		JarMatcher matcher = new JarMatcher(oldJar.toFile(), newJar.toFile(), new GenState().createObfuscatedMatcher());
+		matcher.match();
+
+		Path matches = dir.resolve("matches.txt");
+		matcher.write(matches.toFile());
+		return Files.readAllLines(matches, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void matchesOverSeveralRounds() throws IOException {
+		List<String> lines = match();
+
+		// r and s match in the first round, which tells p and q apart in the second one
+		Assertions.assertTrue(lines.contains("c\tLr;\tLa;"), lines.toString());
+		Assertions.assertTrue(lines.contains("c\tLs;\tLb;"), lines.toString());
+		Assertions.assertTrue(lines.contains("c\tLp;\tLc;"), lines.toString());
+		Assertions.assertTrue(lines.contains("c\tLq;\tLd;"), lines.toString());
+		Assertions.assertTrue(lines.contains("c\tLnet/minecraft/Main;\tLnet/minecraft/Main;"), lines.toString());
+	}
+
+	@Test
+	public void neverMatchesAmbiguousClasses() throws IOException {
+		List<String> lines = match();
+
+		for (String line : lines) {
+			Assertions.assertFalse(line.startsWith("c\tLt;") || line.startsWith("c\tLu;"), line);
+		}
+	}
+
+	@Test
+	public void matchesMembersOfMatchedClasses() throws IOException {
+		List<String> lines = match();
+		int p = lines.indexOf("c\tLp;\tLc;");
+
+		Assertions.assertEquals(Arrays.asList("c\tLp;\tLc;", "\tf\ta;;Lr;\ta;;La;"), lines.subList(p, p + 2));
+		Assertions.assertTrue(lines.contains("\tf\ta;;Lp;\ta;;Lc;"), lines.toString());
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.fabricmc.mappings.EntryTriple;
+import net.fabricmc.stitch.representation.JarReader;
+import net.fabricmc.stitch.representation.JarRootEntry;
+import net.fabricmc.stitch.util.StitchUtil;
+
+public class TestJarRemapper {
+	private static final Handle METAFACTORY = new Handle(Opcodes.H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory",
+					"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;"
+									+ "Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+
+	private Path dir;
+	private Path jar;
+
+	@BeforeEach
+	public void createJar() throws IOException {
+		dir = Files.createTempDirectory("stitch-remap");
+		jar = dir.resolve("test.jar");
+
+		Jars.write(jar,
+						createClass("a", 0, "java/lang/Object", "a()V", "static s()V"),
+						// hides a.s() with a static method of its own
+						createClass("b", 0, "a", "static s()V"),
+						createClass("c", 0, "a"),
+						// two abstract methods named a, the lambda below implements the first one
+						createClass("i", Opcodes.ACC_INTERFACE, "java/lang/Object", "a(I)V", "a()V"),
+						createLambdaClass("l", "i"));
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		Jars.delete(dir);
+	}
+
+	/**
+	 * Creates an abstract class with the given methods, each written as name and descriptor and abstract unless
+	 * prefixed with {@code static}.
+	 */
+	private static byte[] createClass(String name, int access, String superName, String... methods) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | access, name, null, superName, null);
+
+		for (String method : methods) {
+			int methodAccess = Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT;
+
+			if (method.startsWith("static ")) {
+				methodAccess = Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC;
+				method = method.substring("static ".length());
+			}
+
+			int descStart = method.indexOf('(');
+			MethodVisitor visitor = writer.visitMethod(methodAccess, method.substring(0, descStart), method.substring(descStart), null, null);
+
+			if ((methodAccess & Opcodes.ACC_STATIC) != 0) {
+				visitor.visitCode();
+				visitor.visitInsn(Opcodes.RETURN);
+				visitor.visitMaxs(0, 0);
+			}
+
+			visitor.visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Creates a class whose method {@code run} creates a lambda implementing {@code a(I)V} of {@code itf}.
+	 */
+	private static byte[] createLambdaClass(String name, String itf) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+
+		MethodVisitor run = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "()V", null, null);
+		run.visitCode();
+		run.visitInvokeDynamicInsn("a", "()L" + itf + ";", METAFACTORY, Type.getType("(I)V"),
+						new Handle(Opcodes.H_INVOKESTATIC, name, "lambda$run$0", "(I)V", false), Type.getType("(I)V"));
+		run.visitInsn(Opcodes.POP);
+		run.visitInsn(Opcodes.RETURN);
+		run.visitMaxs(1, 0);
+		run.visitEnd();
+
+		MethodVisitor lambda = writer.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, "lambda$run$0", "(I)V", null, null);
+		lambda.visitCode();
+		lambda.visitInsn(Opcodes.RETURN);
+		lambda.visitMaxs(0, 1);
+		lambda.visitEnd();
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private JarRemapper createRemapper() throws IOException {
+		JarRootEntry jarEntry = new JarRootEntry(jar.toFile());
+		JarReader.Builder.create(jarEntry).joinMethodEntries(false).build().apply();
+
+		GenMap map = new GenMap();
+		for (String name : new String[] {"a", "b", "c", "i", "l"}) {
+			map.addClass(name, name);
+		}
+
+		map.addMethod(new EntryTriple("a", "a", "()V"), new EntryTriple("a", "method_1", "()V"));
+		map.addMethod(new EntryTriple("a", "s", "()V"), new EntryTriple("a", "method_2", "()V"));
+		map.addMethod(new EntryTriple("i", "a", "(I)V"), new EntryTriple("i", "method_3", "(I)V"));
+		map.addMethod(new EntryTriple("i", "a", "()V"), new EntryTriple("i", "method_4", "()V"));
+		return new JarRemapper(jarEntry, map);
+	}
+
+	@Test
+	public void methodsResolveThroughTheHierarchy() throws IOException {
+		Remapper remapper = createRemapper().getRemapper();
+
+		Assertions.assertEquals("method_1", remapper.mapMethodName("b", "a", "()V"));
+		Assertions.assertEquals("method_2", remapper.mapMethodName("c", "s", "()V"));
+		// b declares its own s(), which doesn't override the one in a
+		Assertions.assertEquals("s", remapper.mapMethodName("b", "s", "()V"));
+		Assertions.assertEquals("x", remapper.mapMethodName("b", "x", "()V"));
+	}
+
+	@Test
+	public void lambdasAreNamedByTheImplementedMethod() throws IOException {
+		Path output = dir.resolve("remapped.jar");
+		createRemapper().remap(jar.toFile(), output.toFile());
+
+		ClassNode node = new ClassNode(StitchUtil.ASM_VERSION);
+
+		try (ZipFile zip = new ZipFile(output.toFile());
+			InputStream in = zip.getInputStream(zip.getEntry("l.class"))) {
+			new ClassReader(in).accept(node, 0);
+		}
+
+		List<String> names = new ArrayList<>();
+
+		for (MethodNode method : node.methods) {
+			for (AbstractInsnNode insn : method.instructions) {
+				if (insn instanceof InvokeDynamicInsnNode) {
+					names.add(((InvokeDynamicInsnNode) insn).name);
+				}
+			}
+		}
+
+		Assertions.assertEquals(Collections.singletonList("method_3"), names);
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestMappingOutputBuffer {
+	@Test
+	public void encodesUtf8() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try (MappingOutputBuffer buffer = new MappingOutputBuffer(out, 4)) {
+			buffer.append("CLASS\t").append("a").append('\t').append("café").append('é').append('\n').append(12);
+		}
+
+		Assertions.assertEquals("CLASS\ta\tcaféé\n12", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void bufferWithoutStreamKeepsContents() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MappingOutputBuffer writer = new MappingOutputBuffer(out, 16);
+
+		try (MappingOutputBuffer buffer = new MappingOutputBuffer(1)) {
+			buffer.append("first line\n");
+			buffer.flush();
+			Assertions.assertEquals(11, buffer.size());
+
+			writer.append(buffer).append(buffer);
+		}
+
+		writer.close();
+		Assertions.assertEquals("first line\nfirst line\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+}
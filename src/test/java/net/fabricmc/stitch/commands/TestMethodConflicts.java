@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Updates mappings where the two matched methods of one override group had different intermediary names.
+ */
+public class TestMethodConflicts {
+	private Path dir;
+	private Path oldJar, newJar, oldMappings, newMappings, matches, report, resolutions;
+
+	@BeforeEach
+	public void createJars() throws Exception {
+		dir = Files.createTempDirectory("stitch-conflicts");
+		oldJar = dir.resolve("old.jar");
+		newJar = dir.resolve("new.jar");
+		oldMappings = dir.resolve("old.tiny");
+		newMappings = dir.resolve("new.tiny");
+		matches = dir.resolve("old-new.match");
+		report = dir.resolve("report.txt");
+		resolutions = dir.resolve("resolutions.txt");
+
+		// two unrelated methods in the old jar turn into an override in the new one
+		Jars.write(oldJar, Jars.createClass("a", "java/lang/Object", "a()V"), Jars.createClass("b", "java/lang/Object", "b()V"));
+		Jars.write(newJar, Jars.createClass("a", "java/lang/Object", "m()V"), Jars.createClass("b", "a", "m()V"));
+		Files.write(matches, Arrays.asList(
+						"c\tLa;\tLa;",
+						"\tm\ta()V\tm()V",
+						"c\tLb;\tLb;",
+						"\tm\tb()V\tm()V"
+		), StandardCharsets.UTF_8);
+
+		new CommandGenerateIntermediary().run(new String[] {oldJar.toString(), oldMappings.toString()});
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		Jars.delete(dir);
+	}
+
+	private void update(String... options) throws Exception {
+		List<String> args = new ArrayList<>(Arrays.asList(oldJar.toString(), newJar.toString(), oldMappings.toString(), newMappings.toString(), matches.toString()));
+		Collections.addAll(args, options);
+		new CommandUpdateIntermediary().run(args.toArray(new String[0]));
+	}
+
+	private String getOldName(String owner, String name) throws IOException {
+		GenMap map = new GenMap();
+		GenState.loadMappings(map, oldMappings.toFile(), "official", "intermediary");
+		return map.getMethod(owner, name, "()V").getName();
+	}
+
+	private String[] reportConflict() throws Exception {
+		Assertions.assertThrows(RuntimeException.class, () -> update("--conflict-report", report.toString()));
+
+		String[] conflict = null;
+
+		for (String line : Files.readAllLines(report, StandardCharsets.UTF_8)) {
+			if (!line.startsWith("#")) {
+				Assertions.assertNull(conflict, "only one conflict expected");
+				conflict = line.split("\t");
+			}
+		}
+
+		Assertions.assertNotNull(conflict);
+		return conflict;
+	}
+
+	@Test
+	public void reportListsCandidates() throws Exception {
+		String nameA = getOldName("a", "a");
+		String nameB = getOldName("b", "b");
+		List<String> sorted = Arrays.asList(nameA, nameB);
+		Collections.sort(sorted);
+
+		String[] conflict = reportConflict();
+		Assertions.assertArrayEquals(new String[] {"a", "m", "()V", sorted.get(0), sorted.get(1)}, conflict);
+
+		List<String> lines = Files.readAllLines(report, StandardCharsets.UTF_8);
+		Assertions.assertTrue(lines.contains("# " + nameA + " <- a.m()V"), lines.toString());
+		Assertions.assertTrue(lines.contains("# " + nameB + " <- b<-a.m()V"), lines.toString());
+
+		// nothing is written for a failed update
+		Assertions.assertFalse(Files.exists(newMappings));
+	}
+
+	@Test
+	public void failedUpdateKeepsExistingTarget() throws Exception {
+		Files.write(newMappings, Collections.singletonList("v1\tofficial\tintermediary"), StandardCharsets.UTF_8);
+		byte[] before = Files.readAllBytes(newMappings);
+
+		reportConflict();
+
+		Assertions.assertArrayEquals(before, Files.readAllBytes(newMappings));
+		try (Stream<Path> files = Files.list(dir)) {
+			Assertions.assertFalse(files.anyMatch((file) -> file.getFileName().toString().endsWith(".tmp")));
+		}
+	}
+
+	@Test
+	public void resolvedReportRegenerates() throws Exception {
+		String[] conflict = reportConflict();
+
+		// a report becomes a resolution file by cutting every line down to one candidate
+		String chosen = conflict[4];
+		Files.write(resolutions, Collections.singletonList(String.join("\t", conflict[0], conflict[1], conflict[2], chosen)), StandardCharsets.UTF_8);
+		update("--conflict-resolutions", resolutions.toString());
+
+		GenMap map = new GenMap();
+		GenState.loadMappings(map, newMappings.toFile(), "official", "intermediary");
+		Assertions.assertEquals(chosen, map.getMethod("a", "m", "()V").getName());
+	}
+
+	@Test
+	public void resolutionMustBeACandidate() throws Exception {
+		String[] conflict = reportConflict();
+
+		Files.write(resolutions, Collections.singletonList(String.join("\t", conflict[0], conflict[1], conflict[2], "method_12345")), StandardCharsets.UTF_8);
+		RuntimeException e = Assertions.assertThrows(RuntimeException.class, () -> update("--conflict-resolutions", resolutions.toString()));
+		Assertions.assertTrue(e.getMessage().contains("not one of the candidates"), e.getMessage());
+	}
+
+	@Test
+	public void resolutionNeedsOneCandidate() throws Exception {
+		String[] conflict = reportConflict();
+
+		Files.write(resolutions, Collections.singletonList(String.join("\t", conflict)), StandardCharsets.UTF_8);
+		Assertions.assertThrows(IOException.class, () -> update("--conflict-resolutions", resolutions.toString()));
+	}
+}
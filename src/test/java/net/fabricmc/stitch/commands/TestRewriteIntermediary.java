@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TestRewriteIntermediary {
+	private Path dir;
+	private Path jar;
+	private Path mappings;
+
+	@BeforeEach
+	public void generateMappings() throws Exception {
+		dir = Files.createTempDirectory("stitch-rewrite");
+		jar = dir.resolve("test.jar");
+		mappings = dir.resolve("mappings.tiny");
+
+		Jars.write(jar,
+						Jars.createClass("a", "java/lang/Object", "a()V"),
+						Jars.createClass("b", "a", "a()V", "b()V"),
+						Jars.createClass("c", "java/lang/Object", "c()V"));
+		new CommandGenerateIntermediary().run(new String[] {jar.toString(), mappings.toString()});
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		Jars.delete(dir);
+	}
+
+	private List<String> rewrite(String... options) throws Exception {
+		Path output = dir.resolve("rewritten.tiny");
+		List<String> args = new ArrayList<>(Arrays.asList(jar.toString(), mappings.toString(), output.toString()));
+		args.addAll(Arrays.asList(options));
+		new CommandRewriteIntermediary().run(args.toArray(new String[0]));
+		return Files.readAllLines(output, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void parallelLookupsKeepTheOutput() throws Exception {
+		List<String> serial = rewrite();
+
+		Assertions.assertEquals(Files.readAllLines(mappings, StandardCharsets.UTF_8), serial);
+		Assertions.assertEquals(serial, rewrite("--parallel"));
+	}
+
+	@Test
+	public void writeAllAddsOverridesUnderTheOverriddenName() throws Exception {
+		List<String> lines = rewrite("--writeAll");
+		String overridden = null;
+
+		for (String line : lines) {
+			if (line.startsWith("METHOD\ta\t()V\ta\t")) {
+				overridden = line.substring(line.lastIndexOf('\t') + 1);
+			}
+		}
+
+		Assertions.assertNotNull(overridden, String.join("\n", lines));
+		Assertions.assertTrue(lines.contains("METHOD\tb\t()V\ta\t" + overridden), String.join("\n", lines));
+		Assertions.assertFalse(rewrite().contains("METHOD\tb\t()V\ta\t" + overridden));
+		Assertions.assertEquals(lines, rewrite("--writeAll", "--parallel"));
+	}
+}
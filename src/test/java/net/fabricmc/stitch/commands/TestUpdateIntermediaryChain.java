@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.commands;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs a chain of three versions where both steps have a conflict on the same obfuscated method.
+ */
+public class TestUpdateIntermediaryChain {
+	private Path dir;
+	private Path[] jars, mappings, matches;
+	private Path report, resolutions;
+
+	@BeforeEach
+	public void createJars() throws Exception {
+		dir = Files.createTempDirectory("stitch-chain");
+		jars = new Path[4];
+		mappings = new Path[4];
+		matches = new Path[4];
+
+		for (int version = 1; version <= 3; version++) {
+			jars[version] = dir.resolve(version + ".jar");
+			mappings[version] = dir.resolve(version + ".tiny");
+			matches[version] = dir.resolve((version - 1) + "-" + version + ".match");
+		}
+
+		report = dir.resolve("report.txt");
+		resolutions = dir.resolve("resolutions.txt");
+
+		Jars.write(jars[1], Jars.createClass("a", "java/lang/Object", "a()V"), Jars.createClass("b", "java/lang/Object", "b()V"));
+		Jars.write(jars[2], Jars.createClass("a", "java/lang/Object", "m()V"), Jars.createClass("b", "a", "m()V"),
+						Jars.createClass("c", "java/lang/Object", "n()V"), Jars.createClass("d", "java/lang/Object", "o()V"));
+		// c and d take over the names of a and b, and their methods become the same override group again
+		Jars.write(jars[3], Jars.createClass("a", "java/lang/Object", "m()V"), Jars.createClass("b", "a", "m()V"));
+
+		Files.write(matches[2], Arrays.asList("c\tLa;\tLa;", "\tm\ta()V\tm()V", "c\tLb;\tLb;", "\tm\tb()V\tm()V"), StandardCharsets.UTF_8);
+		Files.write(matches[3], Arrays.asList("c\tLc;\tLa;", "\tm\tn()V\tm()V", "c\tLd;\tLb;", "\tm\to()V\tm()V"), StandardCharsets.UTF_8);
+
+		new CommandGenerateIntermediary().run(new String[] {jars[1].toString(), mappings[1].toString()});
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		Jars.delete(dir);
+	}
+
+	private void update(String... options) throws Exception {
+		List<String> args = new ArrayList<>(Arrays.asList(jars[1].toString(), mappings[1].toString()));
+
+		for (int version = 2; version <= 3; version++) {
+			Collections.addAll(args, matches[version].toString(), jars[version].toString(), mappings[version].toString());
+		}
+
+		Collections.addAll(args, options);
+		new CommandUpdateIntermediaryChain().run(args.toArray(new String[0]));
+	}
+
+	private static String[] readConflict(Path report) throws IOException {
+		String[] conflict = null;
+
+		for (String line : Files.readAllLines(report, StandardCharsets.UTF_8)) {
+			if (!line.startsWith("#")) {
+				Assertions.assertNull(conflict, "only one conflict expected");
+				conflict = line.split("\t");
+			}
+		}
+
+		Assertions.assertNotNull(conflict);
+		return conflict;
+	}
+
+	private static void resolve(Path resolutions, String[] conflict, String name) throws IOException {
+		Files.write(resolutions, Collections.singletonList(String.join("\t", conflict[0], conflict[1], conflict[2], name)), StandardCharsets.UTF_8);
+	}
+
+	private static String getMethodName(Path mappings, String owner, String name) throws IOException {
+		GenMap map = new GenMap();
+		GenState.loadMappings(map, mappings.toFile(), "official", "intermediary");
+		return map.getMethod(owner, name, "()V").getName();
+	}
+
+	private static Path getStepFile(Path path, int version) {
+		return path.resolveSibling(path.getFileName() + "." + version);
+	}
+
+	@Test
+	public void conflictsAreScopedPerStep() throws Exception {
+		String[] options = {"--conflict-report", report.toString(), "--conflict-resolutions", resolutions.toString()};
+
+		// the first step stops the chain, its report has the names of the first version
+		Assertions.assertThrows(RuntimeException.class, () -> update(options));
+		String[] first = readConflict(getStepFile(report, 2));
+		Assertions.assertFalse(Files.exists(getStepFile(report, 3)));
+		Assertions.assertFalse(Files.exists(mappings[2]));
+
+		resolve(getStepFile(resolutions, 2), first, first[4]);
+
+		// the same obfuscated method conflicts in the next step, with candidates from the second version
+		Assertions.assertThrows(RuntimeException.class, () -> update(options));
+		Assertions.assertEquals(first[4], getMethodName(mappings[2], "a", "m"));
+
+		String[] second = readConflict(getStepFile(report, 3));
+		Assertions.assertEquals(Arrays.asList(first[0], first[1], first[2]), Arrays.asList(second[0], second[1], second[2]));
+
+		List<String> candidates = Arrays.asList(getMethodName(mappings[2], "c", "n"), getMethodName(mappings[2], "d", "o"));
+		Collections.sort(candidates);
+		Assertions.assertEquals(candidates, Arrays.asList(second[3], second[4]));
+		Assertions.assertFalse(candidates.contains(first[4]));
+		Assertions.assertFalse(Files.exists(mappings[3]));
+
+		resolve(getStepFile(resolutions, 3), second, second[3]);
+		update(options);
+
+		Assertions.assertEquals(first[4], getMethodName(mappings[2], "a", "m"));
+		Assertions.assertEquals(second[3], getMethodName(mappings[3], "a", "m"));
+	}
+}
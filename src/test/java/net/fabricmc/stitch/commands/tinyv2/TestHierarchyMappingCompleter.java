@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import net.fabricmc.stitch.representation.JarReader;
+import net.fabricmc.stitch.representation.JarRootEntry;
+
+public class TestHierarchyMappingCompleter {
+	private Path dir;
+	private Path jar;
+
+	@BeforeEach
+	public void createJar() throws IOException {
+		dir = Files.createTempDirectory("stitch-hierarchy");
+		jar = dir.resolve("test.jar");
+
+		// b, c and d all override a.m()
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+			for (String name : new String[] {"a", "b", "c", "d"}) {
+				out.putNextEntry(new JarEntry(name + ".class"));
+				out.write(createClass(name, name.equals("a") ? "java/lang/Object" : "a"));
+			}
+		}
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+
+		Files.delete(dir);
+	}
+
+	private static byte[] createClass(String name, String superName) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, superName, null);
+		writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "m", "()V", null, null).visitEnd();
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private HierarchyMappingCompleter complete(TinyFile mappings) throws IOException {
+		JarRootEntry jarEntry = new JarRootEntry(jar.toFile());
+		JarReader.Builder.create(jarEntry).joinMethodEntries(true).build().apply();
+
+		HierarchyMappingCompleter completer = new HierarchyMappingCompleter(jarEntry, mappings);
+		completer.complete();
+		return completer;
+	}
+
+	private TinyFile read(String... lines) throws IOException {
+		Path file = dir.resolve("mappings.tinyv2");
+		Files.write(file, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+		return TinyV2Reader.read(file);
+	}
+
+	/**
+	 * The names of {@code m()V} in each class of the mappings, by the class name in the first namespace.
+	 */
+	private static List<String> getMethodNames(TinyFile mappings) {
+		List<String> names = new ArrayList<>();
+
+		for (TinyClass tinyClass : mappings.getClassEntries()) {
+			for (TinyMethod method : tinyClass.getMethods()) {
+				names.add(tinyClass.getClassNames().get(0) + "." + String.join("/", method.getMethodNames()));
+			}
+		}
+
+		Collections.sort(names);
+		return names;
+	}
+
+	@Test
+	public void completesMappedClassesOnly() throws IOException {
+		TinyFile mappings = read("tiny\t2\t0\tofficial\tnamed",
+						"c\ta\tA",
+						"\tm\t()V\tm\trun",
+						"c\tb\tB",
+						"c\tc\tC",
+						"\tm\t()V\tm\t");
+		HierarchyMappingCompleter completer = complete(mappings);
+
+		Assertions.assertEquals(Arrays.asList("a.m/run", "b.m/run", "c.m/run"), getMethodNames(mappings));
+		// d has no mappings, it doesn't get an entry without names
+		Assertions.assertEquals(3, mappings.getClassEntries().size());
+		Assertions.assertEquals(1, completer.getCompletedGroups());
+		Assertions.assertEquals(1, completer.getAddedMethods());
+		Assertions.assertEquals(Collections.emptyList(), completer.getInconsistencies());
+	}
+
+	@Test
+	public void reportsInconsistentNamesAndUsesTheMostCommonOne() throws IOException {
+		TinyFile mappings = read("tiny\t2\t0\tofficial\tnamed",
+						"c\ta\tA",
+						"\tm\t()V\tm\trun",
+						"c\tb\tB",
+						"\tm\t()V\tm\tgo",
+						"c\tc\tC",
+						"\tm\t()V\tm\trun",
+						"c\td\tD");
+		HierarchyMappingCompleter completer = complete(mappings);
+
+		Assertions.assertEquals(Arrays.asList("a.m/run", "b.m/go", "c.m/run", "d.m/run"), getMethodNames(mappings));
+		Assertions.assertEquals(Collections.singletonList("named\tm()V\t{run=[a, c], go=[b]}"), completer.getInconsistencies());
+	}
+
+	@Test
+	public void leavesCompleteGroupsAlone() throws IOException {
+		TinyFile mappings = read("tiny\t2\t0\tofficial\tnamed",
+						"c\ta\tA",
+						"\tm\t()V\tm\trun",
+						"c\tb\tB",
+						"\tm\t()V\tm\trun");
+		HierarchyMappingCompleter completer = complete(mappings);
+
+		Assertions.assertEquals(Arrays.asList("a.m/run", "b.m/run"), getMethodNames(mappings));
+		Assertions.assertEquals(0, completer.getCompletedGroups());
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import net.fabricmc.stitch.representation.JarReader;
+import net.fabricmc.stitch.representation.JarRootEntry;
+
+public class TestMappingStats {
+	private static final String MAPPINGS = String.join("\n",
+					"tiny\t2\t0\tofficial\tintermediary\tnamed",
+					"c\ta\tnet/minecraft/class_1\tnet/minecraft/Named",
+					"\tf\tI\ta\tfield_1\tcount",
+					"\tf\tJ\ta\tfield_2\t",
+					"\tm\t(IJ)V\tb\tmethod_1\tadd",
+					"\t\tp\t1\t\t\tvalue",
+					"c\tb\tnet/minecraft/class_2\t",
+					"");
+
+	private Path dir;
+	private Path jar;
+	private Path mappings;
+
+	@BeforeEach
+	public void createFiles() throws IOException {
+		dir = Files.createTempDirectory("stitch-stats");
+		jar = dir.resolve("test.jar");
+		mappings = dir.resolve("mappings.tinyv2");
+
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+			for (String name : new String[] {"a", "b", "c"}) {
+				out.putNextEntry(new JarEntry(name + ".class"));
+				out.write(createClass(name));
+			}
+		}
+
+		Files.write(mappings, MAPPINGS.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		Files.delete(jar);
+		Files.delete(mappings);
+		Files.delete(dir);
+	}
+
+	/**
+	 * Creates a class with two fields named {@code a}, of type int and long, and an abstract method {@code b(IJ)V}.
+	 */
+	private static byte[] createClass(String name) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, "java/lang/Object", null);
+		writer.visitField(Opcodes.ACC_PUBLIC, "a", "I", null, null).visitEnd();
+		writer.visitField(Opcodes.ACC_PUBLIC, "a", "J", null, null).visitEnd();
+		writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "b", "(IJ)V", null, null).visitEnd();
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private String computeJson(String jarName) throws IOException {
+		JarRootEntry jarEntry = new JarRootEntry(jar.toFile());
+		JarReader.Builder.create(jarEntry).joinMethodEntries(false).build().apply();
+
+		StringWriter writer = new StringWriter();
+		MappingStats.compute(jarEntry, TinyV2Reader.read(mappings)).writeJson(writer, jarName);
+		return writer.toString();
+	}
+
+	private static String getNamespace(String json, String namespace) {
+		int start = json.indexOf("\"" + namespace + "\": {");
+		Assertions.assertTrue(start >= 0, json);
+		int end = json.indexOf("\n    }", start);
+		return json.substring(start, end);
+	}
+
+	@Test
+	public void countsFieldsByNameAndDescriptor() throws IOException {
+		String json = computeJson("test.jar");
+		String intermediary = getNamespace(json, "intermediary");
+		String named = getNamespace(json, "named");
+
+		// a and b are mapped, c isn't in the mappings at all
+		Assertions.assertTrue(intermediary.contains("\"total\": {\"classes\": {\"total\": 3, \"mapped\": 0, \"intermediary\": 2, \"unmapped\": 1}, "
+						+ "\"fields\": {\"total\": 6, \"mapped\": 0, \"intermediary\": 2, \"unmapped\": 4}, "
+						+ "\"methods\": {\"total\": 3, \"mapped\": 0, \"intermediary\": 1, \"unmapped\": 2}, "
+						+ "\"parameters\": {\"total\": 6, \"mapped\": 0, \"intermediary\": 0, \"unmapped\": 6}}"), intermediary);
+		// the int field a is named, the long one isn't
+		Assertions.assertTrue(named.contains("\"total\": {\"classes\": {\"total\": 3, \"mapped\": 1, \"intermediary\": 0, \"unmapped\": 2}, "
+						+ "\"fields\": {\"total\": 6, \"mapped\": 1, \"intermediary\": 0, \"unmapped\": 5}, "
+						+ "\"methods\": {\"total\": 3, \"mapped\": 1, \"intermediary\": 0, \"unmapped\": 2}, "
+						+ "\"parameters\": {\"total\": 6, \"mapped\": 1, \"intermediary\": 0, \"unmapped\": 5}}"), named);
+		Assertions.assertTrue(named.contains("\"packages\": {\n        \"\": {\"classes\": {\"total\": 3,"), named);
+	}
+
+	@Test
+	public void escapesNames() throws IOException {
+		String json = computeJson("we\"ird\\name\u0001.jar");
+
+		Assertions.assertTrue(json.contains("\"jar\": \"we\\\"ird\\\\name\\u0001.jar\","), json);
+	}
+
+	@Test
+	public void recognizesIntermediaryNames() {
+		Assertions.assertTrue(MappingStats.isIntermediaryName("net/minecraft/class_123"));
+		Assertions.assertTrue(MappingStats.isIntermediaryName("net/minecraft/class_1$class_2"));
+		Assertions.assertTrue(MappingStats.isIntermediaryName("method_5"));
+		Assertions.assertTrue(MappingStats.isIntermediaryName("comp_7"));
+		Assertions.assertFalse(MappingStats.isIntermediaryName("class_"));
+		Assertions.assertFalse(MappingStats.isIntermediaryName("class_1a"));
+		Assertions.assertFalse(MappingStats.isIntermediaryName("net/minecraft/Named"));
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.merge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.fabricmc.stitch.util.StitchUtil;
+
+public class TestClassMerger {
+	private static final String ENVIRONMENT = "Lnet/fabricmc/api/Environment;";
+	private static final String ENVIRONMENT_INTERFACES = "Lnet/fabricmc/api/EnvironmentInterfaces;";
+
+	/**
+	 * Creates a class with the given interfaces, int fields, void methods and inner classes, in that order.
+	 */
+	private static byte[] createClass(List<String> interfaces, List<String> fields, List<String> methods, List<String> innerClasses) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "K", null, "java/lang/Object", interfaces.toArray(new String[0]));
+
+		for (String name : innerClasses) {
+			writer.visitInnerClass("K$" + name, "K", name, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+		}
+
+		for (String name : fields) {
+			writer.visitField(Opcodes.ACC_PUBLIC, name, "I", null, null).visitEnd();
+		}
+
+		for (String name : methods) {
+			writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, "()V", null, null).visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static byte[] createClass(List<String> fields, List<String> methods) {
+		return createClass(Collections.emptyList(), fields, methods, Collections.emptyList());
+	}
+
+	private static ClassNode merge(List<String> environments, byte[]... classes) {
+		byte[] merged = new ClassMerger().merge(environments, Arrays.asList(classes), UnaryOperator.identity());
+		ClassNode node = new ClassNode(StitchUtil.ASM_VERSION);
+		new ClassReader(merged).accept(node, 0);
+		return node;
+	}
+
+	private static String getSide(List<AnnotationNode> annotations) {
+		if (annotations == null) {
+			return null;
+		}
+
+		for (AnnotationNode annotation : annotations) {
+			if (annotation.desc.equals(ENVIRONMENT)) {
+				Assertions.assertEquals("value", annotation.values.get(0));
+				// a single enum constant, never an array of them
+				String[] value = (String[]) annotation.values.get(1);
+				Assertions.assertEquals("Lnet/fabricmc/api/EnvType;", value[0]);
+				return value[1];
+			}
+		}
+
+		return null;
+	}
+
+	private static List<String> getFields(ClassNode node) {
+		List<String> fields = new ArrayList<>();
+
+		for (FieldNode field : node.fields) {
+			String side = getSide(field.invisibleAnnotations);
+			fields.add(side != null ? field.name + "@" + side : field.name);
+		}
+
+		return fields;
+	}
+
+	private static List<String> getMethods(ClassNode node) {
+		List<String> methods = new ArrayList<>();
+
+		for (MethodNode method : node.methods) {
+			String side = getSide(method.invisibleAnnotations);
+			methods.add(side != null ? method.name + "@" + side : method.name);
+		}
+
+		return methods;
+	}
+
+	private static List<String> getInterfaceSides(ClassNode node) {
+		List<String> sides = new ArrayList<>();
+
+		if (node.invisibleAnnotations != null) {
+			for (AnnotationNode annotation : node.invisibleAnnotations) {
+				if (annotation.desc.equals(ENVIRONMENT_INTERFACES)) {
+					for (Object value : (List<?>) annotation.values.get(1)) {
+						AnnotationNode itf = (AnnotationNode) value;
+						String side = ((String[]) itf.values.get(1))[1];
+						sides.add(((Type) itf.values.get(3)).getInternalName() + "@" + side);
+					}
+				}
+			}
+		}
+
+		return sides;
+	}
+
+	@Test
+	public void oneSidedMembersKeepTheirPosition() {
+		ClassNode merged = merge(Arrays.asList("CLIENT", "SERVER"),
+						createClass(Collections.emptyList(), Arrays.asList("x", "a", "c", "e"), Arrays.asList("m", "client", "n"), Arrays.asList("A", "C")),
+						createClass(Collections.emptyList(), Arrays.asList("a", "b", "c", "d", "e"), Arrays.asList("server", "m", "n", "last"), Arrays.asList("A", "B", "C", "D")));
+
+		Assertions.assertEquals(Arrays.asList("x@CLIENT", "a", "b@SERVER", "c", "d@SERVER", "e"), getFields(merged));
+		Assertions.assertEquals(Arrays.asList("server@SERVER", "m", "client@CLIENT", "n", "last@SERVER"), getMethods(merged));
+
+		List<String> innerClasses = new ArrayList<>();
+		for (InnerClassNode innerClass : merged.innerClasses) {
+			innerClasses.add(innerClass.innerName);
+		}
+
+		Assertions.assertEquals(Arrays.asList("A", "B", "C", "D"), innerClasses);
+		Assertions.assertNull(getSide(merged.invisibleAnnotations));
+		Assertions.assertNull(getSide(merged.visibleAnnotations));
+	}
+
+	@Test
+	public void identicalClassesStayUnannotated() {
+		byte[] data = createClass(Arrays.asList("a", "b"), Arrays.asList("m"));
+		ClassNode merged = merge(Arrays.asList("CLIENT", "SERVER"), data, data);
+
+		Assertions.assertEquals(Arrays.asList("a", "b"), getFields(merged));
+		Assertions.assertEquals(Arrays.asList("m"), getMethods(merged));
+		Assertions.assertEquals(Collections.emptyList(), getInterfaceSides(merged));
+	}
+
+	@Test
+	public void oneSidedInterfaces() {
+		ClassNode merged = merge(Arrays.asList("CLIENT", "SERVER"),
+						createClass(Arrays.asList("I", "C1", "J", "C2"), Collections.emptyList(), Collections.emptyList(), Collections.emptyList()),
+						createClass(Arrays.asList("S", "I", "J"), Collections.emptyList(), Collections.emptyList(), Collections.emptyList()));
+
+		Assertions.assertEquals(Arrays.asList("S", "I", "C1", "J", "C2"), merged.interfaces);
+		// grouped by environment, client first
+		Assertions.assertEquals(Arrays.asList("C1@CLIENT", "C2@CLIENT", "S@SERVER"), getInterfaceSides(merged));
+	}
+
+	@Test
+	public void environmentsSharedByVersions() {
+		ClassNode merged = merge(Arrays.asList("CLIENT", "SERVER", "SERVER"),
+						createClass(Arrays.asList("I", "C"), Arrays.asList("all", "clientAndFirst", "client"), Arrays.asList("m"), Collections.emptyList()),
+						createClass(Arrays.asList("I", "S"), Arrays.asList("all", "clientAndFirst", "servers", "first"), Arrays.asList("m"), Collections.emptyList()),
+						createClass(Arrays.asList("S"), Arrays.asList("all", "servers", "second"), Arrays.asList("m", "second"), Collections.emptyList()));
+
+		// members in both environments stay unannotated even though one server version lacks them
+		Assertions.assertEquals(Arrays.asList("all", "clientAndFirst", "client@CLIENT", "servers@SERVER", "first@SERVER", "second@SERVER"), getFields(merged));
+		Assertions.assertEquals(Arrays.asList("m", "second@SERVER"), getMethods(merged));
+		Assertions.assertEquals(Arrays.asList("C@CLIENT", "S@SERVER"), getInterfaceSides(merged));
+	}
+
+	@Test
+	public void versionsOfOneEnvironmentStayUnannotated() {
+		ClassNode merged = merge(Arrays.asList("SERVER", "SERVER"),
+						createClass(Arrays.asList("a"), Arrays.asList("m")),
+						createClass(Arrays.asList("a", "b"), Arrays.asList("n")));
+
+		Assertions.assertEquals(Arrays.asList("a", "b"), getFields(merged));
+		Assertions.assertEquals(Arrays.asList("m", "n"), getMethods(merged));
+	}
+
+	@Test
+	public void unknownEnvironment() {
+		byte[] data = createClass(Arrays.asList("a"), Arrays.asList("m"));
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> merge(Arrays.asList("CLIENT", "DEBUG"), data, data));
+	}
+}
@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.merge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.fabricmc.stitch.util.RawZipEntry;
+import net.fabricmc.stitch.util.RawZipFile;
+import net.fabricmc.stitch.util.StitchUtil;
+
+public class TestJarMerger {
+	// an even number of seconds, MS-DOS times only have a two second resolution
+	private static final long TIME = 1565000000000L;
+
+	private final List<File> files = new ArrayList<>();
+
+	@AfterEach
+	public void deleteFiles() {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	private File createTempFile() throws IOException {
+		File file = File.createTempFile("stitch-jarmerger", ".jar");
+		files.add(file);
+		return file;
+	}
+
+	/**
+	 * Creates an abstract class with the given void methods.
+	 */
+	private static byte[] createClass(String name, String... methods) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, "java/lang/Object", null);
+
+		for (String method : methods) {
+			writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, method, "()V", null, null).visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Creates a class like {@link #createClass(String, String...)} with the obfuscator's source file name and a
+	 * snowman named parameter on every method.
+	 */
+	private static byte[] createSnowmanClass(String name, String... methods) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, "java/lang/Object", null);
+		writer.visitSource("SourceFile", null);
+
+		for (String method : methods) {
+			MethodVisitor visitor = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, method, "(I)V", null, null);
+			visitor.visitParameter("\u2603", 0);
+			visitor.visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Creates a class with a method {@code run} whose only instruction is on the given line.
+	 */
+	private static byte[] createClassWithLine(String name, int line) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+		writer.visitSource("SourceFile", null);
+
+		MethodVisitor run = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "()V", null, null);
+		Label start = new Label();
+		run.visitCode();
+		run.visitLabel(start);
+		run.visitLineNumber(line, start);
+		run.visitInsn(Opcodes.RETURN);
+		run.visitMaxs(0, 0);
+		run.visitEnd();
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Writes a jar with every entry stored, so entries the merger deflated itself can be told apart from copied ones.
+	 */
+	private File writeJar(Map<String, byte[]> contents) throws IOException {
+		File file = createTempFile();
+
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+			for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+				CRC32 crc = new CRC32();
+				crc.update(content.getValue());
+
+				ZipEntry entry = new ZipEntry(content.getKey());
+				entry.setTime(TIME);
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(content.getValue().length);
+				entry.setCompressedSize(content.getValue().length);
+				entry.setCrc(crc.getValue());
+
+				out.putNextEntry(entry);
+				out.write(content.getValue());
+				out.closeEntry();
+			}
+		}
+
+		return file;
+	}
+
+	/**
+	 * Writes a jar deflated at the fastest level, which the merger doesn't use for anything it deflates itself.
+	 */
+	private File writeFastDeflatedJar(Map<String, byte[]> contents) throws IOException {
+		File file = createTempFile();
+
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+			out.setLevel(Deflater.BEST_SPEED);
+
+			for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+				ZipEntry entry = new ZipEntry(content.getKey());
+				entry.setTime(TIME);
+				out.putNextEntry(entry);
+				out.write(content.getValue());
+				out.closeEntry();
+			}
+		}
+
+		return file;
+	}
+
+	/**
+	 * @return the environment a class is annotated with, or null if it has none
+	 */
+	private static String getSide(byte[] data) {
+		ClassNode node = new ClassNode(StitchUtil.ASM_VERSION);
+		new ClassReader(data).accept(node, 0);
+
+		if (node.visibleAnnotations != null) {
+			for (AnnotationNode annotation : node.visibleAnnotations) {
+				if (annotation.desc.equals("Lnet/fabricmc/api/Environment;")) {
+					return ((String[]) annotation.values.get(1))[1];
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private static List<String> getMethods(byte[] data) {
+		ClassNode node = new ClassNode(StitchUtil.ASM_VERSION);
+		new ClassReader(data).accept(node, 0);
+		List<String> methods = new ArrayList<>();
+
+		for (MethodNode method : node.methods) {
+			methods.add(method.name);
+		}
+
+		return methods;
+	}
+
+	@Test
+	public void mergesSortedEntriesOfAllJarsAcrossBatches() throws IOException {
+		// more entries than a batch holds, written in reverse order, every third one missing from each side
+		Map<String, byte[]> client = new LinkedHashMap<>();
+		Map<String, byte[]> server = new LinkedHashMap<>();
+
+		for (int i = 599; i >= 0; i--) {
+			String name = String.format("net/minecraft/K%03d", i);
+
+			if (i % 3 != 1) {
+				client.put(name + ".class", createClass(name, "a"));
+			}
+
+			if (i % 3 != 2) {
+				server.put(name + ".class", createClass(name, "a"));
+			}
+		}
+
+		server.put("com/library/L.class", createClass("com/library/L"));
+		server.put("data/server.txt", new byte[] {1});
+
+		File output = createTempFile();
+
+		try (JarMerger merger = new JarMerger(writeJar(client), writeJar(server), output)) {
+			merger.merge();
+		}
+
+		try (RawZipFile zip = new RawZipFile(output)) {
+			List<String> names = new ArrayList<>();
+
+			for (RawZipEntry entry : zip.getEntries()) {
+				if (!entry.isDirectory()) {
+					names.add(entry.getName());
+				}
+			}
+
+			List<String> sorted = new ArrayList<>(names);
+			Collections.sort(sorted);
+			Assertions.assertEquals(sorted, names);
+			// bundled libraries are dropped, other server resources are kept
+			Assertions.assertEquals(601, names.size());
+			Assertions.assertNull(zip.getEntry("com/library/L.class"));
+			Assertions.assertNotNull(zip.getEntry("data/server.txt"));
+
+			for (int i = 0; i < 600; i++) {
+				byte[] data = zip.read(zip.getEntry(String.format("net/minecraft/K%03d.class", i)));
+				Assertions.assertEquals(i % 3 == 0 ? null : i % 3 == 1 ? "SERVER" : "CLIENT", getSide(data), Integer.toString(i));
+			}
+		}
+	}
+
+	@Test
+	public void mergesMoreThanTwoJars() throws IOException {
+		Map<String, byte[]> client = new LinkedHashMap<>();
+		client.put("net/minecraft/Both.class", createClass("net/minecraft/Both", "a"));
+		Map<String, byte[]> server = new LinkedHashMap<>();
+		server.put("net/minecraft/Servers.class", createClass("net/minecraft/Servers", "a"));
+		Map<String, byte[]> otherServer = new LinkedHashMap<>();
+		otherServer.put("net/minecraft/Both.class", createClass("net/minecraft/Both", "b"));
+		otherServer.put("net/minecraft/Servers.class", createClass("net/minecraft/Servers", "b"));
+
+		File output = createTempFile();
+
+		try (JarMerger merger = new JarMerger(Arrays.asList("CLIENT", "SERVER", "SERVER"),
+						Arrays.asList(writeJar(client), writeJar(server), writeJar(otherServer)), output)) {
+			merger.merge();
+		}
+
+		try (RawZipFile zip = new RawZipFile(output)) {
+			byte[] both = zip.read(zip.getEntry("net/minecraft/Both.class"));
+			byte[] servers = zip.read(zip.getEntry("net/minecraft/Servers.class"));
+
+			Assertions.assertNull(getSide(both));
+			Assertions.assertEquals(Arrays.asList("a", "b"), getMethods(both));
+			Assertions.assertEquals("SERVER", getSide(servers));
+			Assertions.assertEquals(Arrays.asList("a", "b"), getMethods(servers));
+		}
+	}
+
+	@Test
+	public void writesAReproducibleJarWithDirectories() throws IOException {
+		Map<String, byte[]> client = new LinkedHashMap<>();
+		Map<String, byte[]> server = new LinkedHashMap<>();
+
+		for (int i = 0; i < 100; i++) {
+			String name = "net/minecraft/p" + i % 4 + "/K" + i;
+			client.put(name + ".class", createClass(name, "a"));
+			server.put(name + ".class", createClass(name, "a", "b"));
+		}
+
+		File clientJar = writeJar(client);
+		File serverJar = writeJar(server);
+		File output = createTempFile();
+		File again = createTempFile();
+
+		try (JarMerger merger = new JarMerger(clientJar, serverJar, output)) {
+			merger.merge();
+		}
+
+		try (JarMerger merger = new JarMerger(clientJar, serverJar, again)) {
+			merger.merge();
+		}
+
+		// compressed on all cores, but appended in the same order every time
+		Assertions.assertArrayEquals(Files.readAllBytes(output.toPath()), Files.readAllBytes(again.toPath()));
+
+		try (ZipFile zip = new ZipFile(output)) {
+			Set<String> seen = new HashSet<>();
+
+			for (ZipEntry entry : Collections.list(zip.entries())) {
+				String name = entry.getName();
+				int parent = name.lastIndexOf('/', name.length() - 2);
+
+				Assertions.assertTrue(parent < 0 || seen.contains(name.substring(0, parent + 1)), name);
+				Assertions.assertEquals(TIME, entry.getTime(), name);
+				seen.add(name);
+
+				if (!entry.isDirectory()) {
+					Assertions.assertEquals(ZipEntry.DEFLATED, entry.getMethod(), name);
+
+					try (InputStream in = zip.getInputStream(entry)) {
+						Assertions.assertEquals(Arrays.asList("a", "b"), getMethods(readAll(in)), name);
+					}
+				}
+			}
+
+			Assertions.assertEquals(100 + 6, seen.size());
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int length;
+
+		while ((length = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, length);
+		}
+
+		return out.toByteArray();
+	}
+
+	@Test
+	public void postProcessesEveryMinecraftClass() throws IOException {
+		byte[] same = createSnowmanClass("net/minecraft/Same", "a");
+		Map<String, byte[]> client = new LinkedHashMap<>();
+		client.put("net/minecraft/Same.class", same);
+		client.put("net/minecraft/Changed.class", createSnowmanClass("net/minecraft/Changed", "a"));
+		client.put("net/minecraft/Client.class", createSnowmanClass("net/minecraft/Client", "a"));
+		Map<String, byte[]> server = new LinkedHashMap<>();
+		server.put("net/minecraft/Same.class", same);
+		server.put("net/minecraft/Changed.class", createSnowmanClass("net/minecraft/Changed", "a", "b"));
+
+		File clientJar = writeJar(client);
+		File serverJar = writeJar(server);
+		File output = createTempFile();
+
+		try (JarMerger merger = new JarMerger(clientJar, serverJar, output)) {
+			merger.enableSnowmanRemoval();
+			merger.merge();
+		}
+
+		try (RawZipFile zip = new RawZipFile(output)) {
+			// identical, merged and one-sided classes all go through the same transforms
+			for (String name : new String[] {"Same", "Changed", "Client"}) {
+				ClassNode node = new ClassNode(StitchUtil.ASM_VERSION);
+				new ClassReader(zip.read(zip.getEntry("net/minecraft/" + name + ".class"))).accept(node, 0);
+
+				Assertions.assertNull(node.sourceFile, name);
+
+				for (MethodNode method : node.methods) {
+					Assertions.assertNull(method.parameters.get(0).name, name + "." + method.name);
+				}
+			}
+
+			Assertions.assertEquals(Arrays.asList("a", "b"), getMethods(zip.read(zip.getEntry("net/minecraft/Changed.class"))));
+			Assertions.assertEquals("CLIENT", getSide(zip.read(zip.getEntry("net/minecraft/Client.class"))));
+		}
+
+		// without the option the identical class is copied as it is
+		try (JarMerger merger = new JarMerger(clientJar, serverJar, output)) {
+			merger.merge();
+		}
+
+		try (RawZipFile zip = new RawZipFile(output)) {
+			Assertions.assertArrayEquals(same, zip.read(zip.getEntry("net/minecraft/Same.class")));
+		}
+	}
+
+	@Test
+	public void mergedClassesAreCached() throws IOException {
+		Map<String, byte[]> client = new LinkedHashMap<>();
+		client.put("net/minecraft/Changed.class", createClass("net/minecraft/Changed", "a"));
+		Map<String, byte[]> server = new LinkedHashMap<>();
+		server.put("net/minecraft/Changed.class", createClass("net/minecraft/Changed", "a", "b"));
+
+		File clientJar = writeJar(client);
+		File serverJar = writeJar(server);
+		File output = createTempFile();
+		Path cache = Files.createTempDirectory("stitch-jarmerger-cache");
+
+		try {
+			try (JarMerger merger = new JarMerger(clientJar, serverJar, output)) {
+				merger.enableCache(cache.toFile());
+				merger.merge();
+			}
+
+			List<Path> entries = listFiles(cache);
+			Assertions.assertEquals(1, entries.size());
+
+			// a hit is taken as it is, so a planted entry shows up in the output
+			byte[] planted = createClass("net/minecraft/Changed", "planted");
+			Files.write(entries.get(0), planted);
+
+			try (JarMerger merger = new JarMerger(clientJar, serverJar, output)) {
+				merger.enableCache(cache.toFile());
+				merger.merge();
+			}
+
+			try (RawZipFile zip = new RawZipFile(output)) {
+				Assertions.assertArrayEquals(planted, zip.read(zip.getEntry("net/minecraft/Changed.class")));
+			}
+
+			// other options are a miss, merged and cached again
+			try (JarMerger merger = new JarMerger(clientJar, serverJar, output)) {
+				merger.enableCache(cache.toFile());
+				merger.enableSnowmanRemoval();
+				merger.merge();
+			}
+
+			try (RawZipFile zip = new RawZipFile(output)) {
+				Assertions.assertEquals(Arrays.asList("a", "b"), getMethods(zip.read(zip.getEntry("net/minecraft/Changed.class"))));
+			}
+
+			Assertions.assertEquals(2, listFiles(cache).size());
+		} finally {
+			try (Stream<Path> files = Files.walk(cache)) {
+				files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+			}
+		}
+	}
+
+	private static List<Path> listFiles(Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void resourcesAreCopiedRaw() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("resource line ").append(i % 10).append('\n');
+		}
+
+		byte[] resource = text.toString().getBytes(StandardCharsets.UTF_8);
+		Map<String, byte[]> client = new LinkedHashMap<>();
+		client.put("assets/client.txt", resource);
+		client.put("assets/both.txt", resource);
+		Map<String, byte[]> server = new LinkedHashMap<>();
+		server.put("data/server.txt", resource);
+		server.put("assets/both.txt", "server version".getBytes(StandardCharsets.UTF_8));
+
+		File clientJar = writeFastDeflatedJar(client);
+		File serverJar = writeFastDeflatedJar(server);
+		File output = createTempFile();
+
+		try (JarMerger merger = new JarMerger(clientJar, serverJar, output)) {
+			merger.merge();
+		}
+
+		try (RawZipFile zip = new RawZipFile(output);
+			RawZipFile clientZip = new RawZipFile(clientJar);
+			RawZipFile serverZip = new RawZipFile(serverJar)) {
+			// the compressed data of the chosen version, not data deflated again
+			assertRawCopy(clientZip, zip, "assets/client.txt");
+			assertRawCopy(clientZip, zip, "assets/both.txt");
+			assertRawCopy(serverZip, zip, "data/server.txt");
+			Assertions.assertArrayEquals(resource, zip.read(zip.getEntry("assets/both.txt")));
+		}
+	}
+
+	private static void assertRawCopy(RawZipFile input, RawZipFile output, String name) throws IOException {
+		RawZipEntry inputEntry = input.getEntry(name);
+		RawZipEntry outputEntry = output.getEntry(name);
+
+		Assertions.assertEquals(inputEntry.getMethod(), outputEntry.getMethod(), name);
+		Assertions.assertEquals(inputEntry.getCrc(), outputEntry.getCrc(), name);
+		Assertions.assertArrayEquals(input.readRaw(inputEntry), output.readRaw(outputEntry), name);
+	}
+
+	@Test
+	public void normalizedComparisonKeepsClassesThatOnlyDifferInDebugInfo() throws IOException {
+		byte[] clientVersion = createClassWithLine("net/minecraft/Lines", 10);
+		Map<String, byte[]> client = new LinkedHashMap<>();
+		client.put("net/minecraft/Lines.class", clientVersion);
+		client.put("net/minecraft/Changed.class", createClass("net/minecraft/Changed", "a"));
+		Map<String, byte[]> server = new LinkedHashMap<>();
+		server.put("net/minecraft/Lines.class", createClassWithLine("net/minecraft/Lines", 20));
+		server.put("net/minecraft/Changed.class", createClass("net/minecraft/Changed", "a", "b"));
+
+		File clientJar = writeJar(client);
+		File serverJar = writeJar(server);
+		File output = createTempFile();
+		Path cache = Files.createTempDirectory("stitch-jarmerger-cache");
+
+		try {
+			try (JarMerger merger = new JarMerger(clientJar, serverJar, output)) {
+				merger.enableCache(cache.toFile());
+				merger.enableNormalizedComparison();
+				merger.merge();
+			}
+
+			try (RawZipFile zip = new RawZipFile(output)) {
+				// the first version is kept as it is, line numbers and all
+				Assertions.assertArrayEquals(clientVersion, zip.read(zip.getEntry("net/minecraft/Lines.class")));
+				// real differences are still merged
+				Assertions.assertEquals(Arrays.asList("a", "b"), getMethods(zip.read(zip.getEntry("net/minecraft/Changed.class"))));
+			}
+
+			// only the class that really differs went through the class merger
+			Assertions.assertEquals(1, listFiles(cache).size());
+
+			try (JarMerger merger = new JarMerger(clientJar, serverJar, output)) {
+				merger.enableCache(cache.toFile());
+				merger.merge();
+			}
+
+			Assertions.assertEquals(2, listFiles(cache).size());
+		} finally {
+			try (Stream<Path> files = Files.walk(cache)) {
+				files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+			}
+		}
+	}
+
+	@Test
+	public void identicalEntriesAreCopiedRaw() throws IOException {
+		byte[] same = createClass("net/minecraft/Same", "a");
+		Map<String, byte[]> client = new LinkedHashMap<>();
+		client.put("net/minecraft/Same.class", same);
+		client.put("net/minecraft/Changed.class", createClass("net/minecraft/Changed", "a"));
+		Map<String, byte[]> server = new LinkedHashMap<>();
+		server.put("net/minecraft/Same.class", same);
+		server.put("net/minecraft/Changed.class", createClass("net/minecraft/Changed", "a", "b"));
+
+		File output = createTempFile();
+
+		try (JarMerger merger = new JarMerger(writeJar(client), writeJar(server), output)) {
+			merger.merge();
+		}
+
+		try (RawZipFile zip = new RawZipFile(output)) {
+			RawZipEntry copied = zip.getEntry("net/minecraft/Same.class");
+			Assertions.assertEquals(ZipEntry.STORED, copied.getMethod());
+			Assertions.assertArrayEquals(same, zip.read(copied));
+
+			RawZipEntry merged = zip.getEntry("net/minecraft/Changed.class");
+			Assertions.assertEquals(ZipEntry.DEFLATED, merged.getMethod());
+			Assertions.assertEquals(Arrays.asList("a", "b"), getMethods(zip.read(merged)));
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.merge;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TestMergeCache {
+	private static final List<String> ENVIRONMENTS = Arrays.asList("CLIENT", "SERVER");
+	private static final List<byte[]> CLASSES = Arrays.asList(new byte[] {1, 2}, new byte[] {3});
+
+	private Path dir;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		dir = Files.createTempDirectory("stitch-cache");
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void missesUntilPutThenHits() throws IOException {
+		MergeCache cache = new MergeCache(dir.toFile());
+		String key = cache.getKey(ENVIRONMENTS, CLASSES, "side=null");
+
+		Assertions.assertNull(cache.get(key));
+		cache.put(key, new byte[] {42});
+		Assertions.assertArrayEquals(new byte[] {42}, cache.get(key));
+		// entries outlive the instance that wrote them
+		Assertions.assertArrayEquals(new byte[] {42}, new MergeCache(dir.toFile()).get(key));
+	}
+
+	@Test
+	public void keysCoverClassesEnvironmentsAndOptions() throws IOException {
+		MergeCache cache = new MergeCache(dir.toFile());
+		String key = cache.getKey(ENVIRONMENTS, CLASSES, "side=null");
+
+		Assertions.assertEquals(key, cache.getKey(ENVIRONMENTS, Arrays.asList(new byte[] {1, 2}, new byte[] {3}), "side=null"));
+		Assertions.assertNotEquals(key, cache.getKey(ENVIRONMENTS, CLASSES, "side=CLIENT"));
+		Assertions.assertNotEquals(key, cache.getKey(Arrays.asList("SERVER", "CLIENT"), CLASSES, "side=null"));
+		Assertions.assertNotEquals(key, cache.getKey(ENVIRONMENTS, Arrays.asList(new byte[] {3}, new byte[] {1, 2}), "side=null"));
+		// the same bytes split differently between the classes
+		Assertions.assertNotEquals(key, cache.getKey(ENVIRONMENTS, Arrays.asList(new byte[] {1}, new byte[] {2, 3}), "side=null"));
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.representation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.stitch.commands.Jars;
+
+public class TestMethodGroups {
+	private Path dir;
+	private Path jar;
+
+	@BeforeEach
+	public void createJar() throws IOException {
+		dir = Files.createTempDirectory("stitch-groups");
+		jar = dir.resolve("test.jar");
+
+		// b and c override a.m(), d declares an unrelated m()
+		Jars.write(jar,
+						Jars.createClass("a", "java/lang/Object", "m()V", "n()V"),
+						Jars.createClass("b", "a", "m()V", "o()V"),
+						Jars.createClass("c", "b", "m()V"),
+						Jars.createClass("d", "java/lang/Object", "m()V"));
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		Jars.delete(dir);
+	}
+
+	private JarRootEntry read(boolean join) throws IOException {
+		JarRootEntry entry = new JarRootEntry(jar.toFile());
+		JarReader.Builder.create(entry).joinMethodEntries(join).build().apply();
+		return entry;
+	}
+
+	private static int getGroupId(JarRootEntry jar, String owner, String method) {
+		int id = jar.getClass(owner, false).getMethod(method).getGroupId();
+		Assertions.assertTrue(id >= 0 && id < jar.getMethodGroupCount(), owner + "." + method + ": " + id);
+		return id;
+	}
+
+	@Test
+	public void joinedMethodsShareAGroup() throws IOException {
+		JarRootEntry jar = read(true);
+
+		Assertions.assertEquals(getGroupId(jar, "a", "m()V"), getGroupId(jar, "b", "m()V"));
+		Assertions.assertEquals(getGroupId(jar, "a", "m()V"), getGroupId(jar, "c", "m()V"));
+
+		Set<Integer> ids = new HashSet<>();
+		ids.add(getGroupId(jar, "a", "m()V"));
+		ids.add(getGroupId(jar, "a", "n()V"));
+		ids.add(getGroupId(jar, "b", "o()V"));
+		ids.add(getGroupId(jar, "d", "m()V"));
+
+		Assertions.assertEquals(4, ids.size());
+		Assertions.assertEquals(4, jar.getMethodGroupCount());
+	}
+
+	@Test
+	public void unjoinedMethodsEachGetAGroup() throws IOException {
+		JarRootEntry jar = read(false);
+		Set<Integer> ids = new HashSet<>();
+
+		for (String owner : new String[] {"a", "b", "c", "d"}) {
+			for (JarMethodEntry method : jar.getClass(owner, false).getMethods()) {
+				Assertions.assertTrue(ids.add(getGroupId(jar, owner, method.getName() + method.getDescriptor())));
+			}
+		}
+
+		Assertions.assertEquals(ids.size(), jar.getMethodGroupCount());
+		Assertions.assertEquals(6, ids.size());
+	}
+}
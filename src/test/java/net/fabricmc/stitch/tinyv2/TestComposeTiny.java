@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.tinyv2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import net.fabricmc.stitch.commands.tinyv2.CommandComposeTiny;
+import net.fabricmc.stitch.commands.tinyv2.TinyClass;
+import net.fabricmc.stitch.commands.tinyv2.TinyFile;
+import net.fabricmc.stitch.commands.tinyv2.TinyLocalVariable;
+import net.fabricmc.stitch.commands.tinyv2.TinyMethod;
+import net.fabricmc.stitch.commands.tinyv2.TinyMethodParameter;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Reader;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Writer;
+
+public class TestComposeTiny {
+	private static final String DIR = new File(TestComposeTiny.class.getClassLoader().getResource("stable-1.14.4").getPath()).getAbsolutePath() + "/";
+
+	private Path dir;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		dir = Files.createTempDirectory("stitch-compose");
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		for (File file : dir.toFile().listFiles()) {
+			file.delete();
+		}
+
+		dir.toFile().delete();
+	}
+
+	private static Map<String, TinyClass> byName(TinyFile file, int column) {
+		Map<String, TinyClass> classes = new HashMap<>();
+
+		for (TinyClass tinyClass : file.getClassEntries()) {
+			classes.put(tinyClass.getClassNames().get(column), tinyClass);
+		}
+
+		return classes;
+	}
+
+	private static TinyMethod getMethod(TinyClass tinyClass, int column, String name) {
+		for (TinyMethod method : tinyClass.getMethods()) {
+			if (method.getMethodNames().get(column).equals(name)) {
+				return method;
+			}
+		}
+
+		return null;
+	}
+
+	private static String orElse(String name, String fallback) {
+		return name.isEmpty() ? fallback : name;
+	}
+
+	/**
+	 * Whether every Minecraft class in a descriptor has an official name, the fixture only has some classes.
+	 */
+	private static boolean isComplete(String desc, Map<String, TinyClass> classes) {
+		List<Type> types = new ArrayList<>(Arrays.asList(Type.getArgumentTypes(desc)));
+		types.add(Type.getReturnType(desc));
+
+		for (Type type : types) {
+			if (type.getSort() == Type.ARRAY) {
+				type = type.getElementType();
+			}
+
+			if (type.getSort() == Type.OBJECT && type.getInternalName().startsWith("net/minecraft/") && !classes.containsKey(type.getInternalName())) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Test
+	public void composesOfficialIntermediaryWithIntermediaryNamed() throws Exception {
+		Path output = dir.resolve("composed.tinyv2");
+		new CommandComposeTiny().run(new String[] {DIR + "intermediary-mappings.tinyv2", DIR + "yarn-mappings.tinyv2", output.toString(), "--keep-shared"});
+
+		TinyFile intermediary = TinyV2Reader.read(Paths.get(DIR + "intermediary-mappings.tinyv2"));
+		TinyFile yarn = TinyV2Reader.read(Paths.get(DIR + "yarn-mappings.tinyv2"));
+		TinyFile composed = TinyV2Reader.read(output);
+
+		Assertions.assertEquals(Arrays.asList("official", "intermediary", "named"), composed.getHeader().getNamespaces());
+		Assertions.assertEquals(intermediary.getClassEntries().size(), composed.getClassEntries().size());
+
+		Map<String, TinyClass> composedClasses = byName(composed, 1);
+		int checkedMethods = 0;
+
+		// everything yarn names that intermediary has an official name for comes out with both
+		for (TinyClass yarnClass : yarn.getClassEntries()) {
+			TinyClass composedClass = composedClasses.get(yarnClass.getClassNames().get(0));
+
+			if (composedClass == null) {
+				continue;
+			}
+
+			Assertions.assertEquals(orElse(yarnClass.getClassNames().get(1), yarnClass.getClassNames().get(0)), composedClass.getClassNames().get(2));
+
+			for (TinyMethod yarnMethod : yarnClass.getMethods()) {
+				TinyMethod composedMethod = getMethod(composedClass, 1, yarnMethod.getMethodNames().get(0));
+
+				if (composedMethod == null || !isComplete(yarnMethod.getMethodDescriptorInFirstNamespace(), composedClasses)) {
+					continue;
+				}
+
+				Assertions.assertEquals(orElse(yarnMethod.getMethodNames().get(1), yarnMethod.getMethodNames().get(0)), composedMethod.getMethodNames().get(2),
+								yarnMethod.getMethodNames().get(0));
+				checkedMethods++;
+			}
+		}
+
+		Assertions.assertTrue(checkedMethods > 0);
+
+		// the streamed file is the same one the in-memory composition writes
+		Path inMemory = dir.resolve("in-memory.tinyv2");
+		TinyV2Writer.write(CommandComposeTiny.compose(intermediary, yarn, true), inMemory);
+		Assertions.assertEquals(new String(Files.readAllBytes(inMemory), StandardCharsets.UTF_8), new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void matchesParametersAndLocalsBySlot() throws IOException {
+		Path a = dir.resolve("a.tinyv2");
+		Path b = dir.resolve("b.tinyv2");
+		Files.write(a, String.join("\n",
+						"tiny\t2\t0\tofficial\tintermediary",
+						"c\ta\tclass_1",
+						"\tm\t()V\ta\tmethod_1",
+						"\t\tp\t1\t\tparam_1",
+						"\t\tv\t2\t5\t-1\t\tlocal_1",
+						"\t\tv\t2\t9\t-1\t\tlocal_2",
+						"").getBytes(StandardCharsets.UTF_8));
+		Files.write(b, String.join("\n",
+						"tiny\t2\t0\tintermediary\tnamed",
+						"c\tclass_1\tName",
+						"\tm\t()V\tmethod_1\tname",
+						"\t\tp\t1\t\tparam",
+						"\t\tv\t2\t5\t-1\t\tcount",
+						"\t\tv\t3\t0\t-1\t\tother",
+						"").getBytes(StandardCharsets.UTF_8));
+
+		TinyFile composed = CommandComposeTiny.compose(TinyV2Reader.read(a), TinyV2Reader.read(b), true);
+		TinyMethod method = composed.getClassEntries().iterator().next().getMethods().iterator().next();
+		Assertions.assertEquals(Arrays.asList("a", "method_1", "name"), method.getMethodNames());
+
+		List<List<String>> parameters = new ArrayList<>();
+		for (TinyMethodParameter parameter : method.getParameters()) {
+			parameters.add(parameter.getParameterNames());
+		}
+
+		Assertions.assertEquals(Arrays.asList(Arrays.asList("", "param_1", "param")), parameters);
+
+		Map<String, List<String>> locals = new HashMap<>();
+		for (TinyLocalVariable local : method.getLocalVariables()) {
+			Assertions.assertNull(locals.put(local.getLvIndex() + ":" + local.getLvStartOffset(), local.getLocalVariableNames()));
+		}
+
+		Map<String, List<String>> expected = new HashMap<>();
+		expected.put("2:5", Arrays.asList("", "local_1", "count"));
+		expected.put("2:9", Arrays.asList("", "local_2", ""));
+		expected.put("3:0", Arrays.asList("", "", "other"));
+		Assertions.assertEquals(expected, locals);
+	}
+}
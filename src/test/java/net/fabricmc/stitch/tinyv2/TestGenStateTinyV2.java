@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.tinyv2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import net.fabricmc.mappings.EntryTriple;
+import net.fabricmc.stitch.commands.CommandGenerateIntermediary;
+import net.fabricmc.stitch.commands.CommandUpdateIntermediary;
+import net.fabricmc.stitch.commands.GenMap;
+import net.fabricmc.stitch.commands.tinyv2.TinyFile;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Reader;
+
+/**
+ * Generates tiny v2 intermediaries for a small obfuscated jar and updates them, which reads them back
+ * through {@link GenMap#load(TinyFile, String, String)} the same way the test does.
+ */
+public class TestGenStateTinyV2 {
+	private static byte[] createClass(String name, String superName, String fieldDesc, String methodDesc) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, superName, null);
+		writer.visitField(Opcodes.ACC_PUBLIC, "a", fieldDesc, null, null).visitEnd();
+		writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, methodDesc, null, null).visitEnd();
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static void writeJar(Path file, String... classes) throws IOException {
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(file))) {
+			for (String name : classes) {
+				out.putNextEntry(new JarEntry(name + ".class"));
+
+				switch (name) {
+				case "a":
+					out.write(createClass("a", "java/lang/Object", "I", "()V"));
+					break;
+				case "b":
+					out.write(createClass("b", "a", "J", "(La;)V"));
+					break;
+				default:
+					out.write(createClass(name, "java/lang/Object", "Lb;", "(Lb;)La;"));
+				}
+			}
+		}
+	}
+
+	private static GenMap load(TinyFile file) {
+		GenMap map = new GenMap();
+		map.load(file, "official", "intermediary");
+		return map;
+	}
+
+	private static int counter(TinyFile file, String kind) {
+		String value = file.getHeader().getProperties().get("intermediary-counter-" + kind);
+		Assertions.assertNotNull(value, kind);
+		return Integer.parseInt(value);
+	}
+
+	@Test
+	public void updateReadsGeneratedMappingsAndCounters() throws Exception {
+		Path dir = Files.createTempDirectory("stitch-tinyv2");
+
+		try {
+			Path oldJar = dir.resolve("old.jar");
+			Path newJar = dir.resolve("new.jar");
+			writeJar(oldJar, "a", "b");
+			writeJar(newJar, "a", "b", "c");
+
+			// too short as a temporary file prefix on its own
+			Path oldMappings = dir.resolve("o");
+			new CommandGenerateIntermediary().run(new String[] {oldJar.toString(), oldMappings.toString(), "--tinyv2"});
+
+			TinyFile oldFile = TinyV2Reader.read(oldMappings);
+			GenMap old = load(oldFile);
+			String a = old.getClass("a");
+			String b = old.getClass("b");
+			Assertions.assertTrue(a.startsWith("net/minecraft/class_"), a);
+			Assertions.assertTrue(b.startsWith("net/minecraft/class_"), b);
+			Assertions.assertNotEquals(a, b);
+
+			EntryTriple field = old.getField("b", "a", "J");
+			Assertions.assertNotNull(field);
+			Assertions.assertEquals(b, field.getOwner());
+			Assertions.assertTrue(field.getName().startsWith("field_"), field.getName());
+
+			EntryTriple method = old.getMethod("b", "b", "(La;)V");
+			Assertions.assertNotNull(method);
+			Assertions.assertTrue(method.getName().startsWith("method_"), method.getName());
+			Assertions.assertEquals("(L" + a + ";)V", method.getDesc());
+
+			// the counters are header properties, not comments as in tiny v1
+			for (String kind : new String[] {"class", "field", "method"}) {
+				Assertions.assertTrue(counter(oldFile, kind) > 0, kind);
+			}
+
+			Path matches = dir.resolve("matches.match");
+			Files.write(matches, Arrays.asList(
+							"c\tLa;\tLa;",
+							"\tf\ta;;I\ta;;I",
+							"\tm\ta()V\ta()V",
+							"c\tLb;\tLb;",
+							"\tf\ta;;J\ta;;J",
+							"\tm\tb(La;)V\tb(La;)V"
+			), StandardCharsets.UTF_8);
+
+			Path newMappings = dir.resolve("new.tiny");
+			new CommandUpdateIntermediary().run(new String[] {oldJar.toString(), newJar.toString(), oldMappings.toString(), newMappings.toString(), matches.toString(), "--tinyv2"});
+
+			TinyFile newFile = TinyV2Reader.read(newMappings);
+			GenMap updated = load(newFile);
+			Assertions.assertEquals(a, updated.getClass("a"));
+			Assertions.assertEquals(b, updated.getClass("b"));
+			Assertions.assertEquals(field, updated.getField("b", "a", "J"));
+			Assertions.assertEquals(method, updated.getMethod("b", "b", "(La;)V"));
+
+			// the new class continues from the counters of the old file instead of reusing a name
+			Assertions.assertEquals("net/minecraft/class_" + counter(oldFile, "class"), updated.getClass("c"));
+			Assertions.assertEquals(counter(oldFile, "class") + 1, counter(newFile, "class"));
+			Assertions.assertEquals(counter(oldFile, "field") + 1, counter(newFile, "field"));
+			Assertions.assertEquals(counter(oldFile, "method") + 1, counter(newFile, "method"));
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestMergePreserveOrder {
+
+	@Test
+	public void testInterleaving() {
+		List<String> client = Arrays.asList("a", "b", "clientOnly", "c", "d");
+		List<String> server = Arrays.asList("serverOnly", "a", "b", "c", "serverOnly2", "d", "serverLast");
+
+		Assertions.assertEquals(Arrays.asList("serverOnly", "a", "b", "clientOnly", "c", "serverOnly2", "d", "serverLast"),
+						StitchUtil.mergePreserveOrder(client, server));
+	}
+
+	@Test
+	public void testReordered() {
+		List<String> client = Arrays.asList("x", "a", "b", "c");
+		List<String> server = Arrays.asList("b", "c", "y", "a");
+
+		// used to loop forever once both heads were shared but different
+		List<String> merged = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5),
+						() -> StitchUtil.mergePreserveOrder(client, server));
+
+		Assertions.assertEquals(Arrays.asList("x", "a", "b", "c", "y"), merged);
+	}
+
+	/**
+	 * Generated registries have a field per entry, so a few thousand members per class are common. The old
+	 * quadratic merge took tens of seconds at this size.
+	 */
+	@Test
+	public void testRegistrySized() {
+		List<String> client = new ArrayList<>();
+		List<String> server = new ArrayList<>();
+
+		for (int i = 0; i < 50000; i++) {
+			String name = "ENTRY_" + i + ";;Lnet/minecraft/registry/Entry;";
+
+			if (i % 7 != 0) {
+				client.add(name);
+			}
+
+			if (i % 11 != 0) {
+				server.add(name);
+			}
+		}
+
+		Collections.swap(server, 100, 40000);
+
+		List<String> merged = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10),
+						() -> StitchUtil.mergePreserveOrder(client, server));
+
+		HashSet<String> all = new HashSet<>(client);
+		all.addAll(server);
+		Assertions.assertEquals(all.size(), merged.size());
+		Assertions.assertEquals(all, new HashSet<>(merged));
+
+		// the client order is kept, the swapped server entries don't move anything
+		List<String> clientOrder = new ArrayList<>(merged);
+		clientOrder.retainAll(new HashSet<>(client));
+		Assertions.assertEquals(client, clientOrder);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestObfuscationPatternMatcher {
+	private static final String[] NAMES = {
+					"", "a", "b", "abc", "ac", "aab", "abbbb", "axb", "a b", "a.b", "a.bc", "ab/c", "ac/d", "b/x",
+					"xy", "xxy", "xxyz", "$foo", "$foobar", "foo", "foo$", "net/x", "com/x",
+					"net/minecraft", "net/minecraft/A", "net/minecraft/class_12", "com/mojang/abc", "com/mojang/ABC",
+					"abc\nd", "a.b\nc", "net/minecraft/a\nb", "$foo\r"
+	};
+
+	private static void assertEquivalent(String... regexes) {
+		List<Pattern> patterns = new ArrayList<>();
+		for (String regex : regexes) {
+			patterns.add(Pattern.compile(regex));
+		}
+
+		ObfuscationPatternMatcher matcher = new ObfuscationPatternMatcher(patterns);
+
+		for (String name : NAMES) {
+			boolean expected = false;
+			for (Pattern pattern : patterns) {
+				expected |= pattern.matcher(name).matches();
+			}
+
+			Assertions.assertEquals(expected, matcher.matches(name), () -> Arrays.toString(regexes) + " on " + name);
+		}
+	}
+
+	@Test
+	public void testPackageless() {
+		assertEquivalent("[^/]*");
+		assertEquivalent("^[^/]*$");
+	}
+
+	@Test
+	public void testLiteralPrefixes() {
+		assertEquivalent("net/minecraft/.*");
+		assertEquivalent("^net/minecraft/.*$");
+		assertEquivalent("a.b.*");
+		assertEquivalent("ab*.*");
+	}
+
+	@Test
+	public void testEscapedLiterals() {
+		assertEquivalent("a\\.b.*");
+		assertEquivalent("\\$foo.*");
+		assertEquivalent("foo\\$");
+		assertEquivalent("\\Qa.b\\E.*");
+	}
+
+	@Test
+	public void testAlternations() {
+		assertEquivalent("(net|com)/.*");
+		assertEquivalent("a|b/.*");
+		assertEquivalent("^a.*|^b$");
+	}
+
+	@Test
+	public void testRegexWithPrefix() {
+		assertEquivalent("net/minecraft/class_\\d+");
+		assertEquivalent("com/mojang/[a-z]+");
+		assertEquivalent("ab?c.*");
+		assertEquivalent("a+b.*");
+		assertEquivalent("x{2}y.*");
+		assertEquivalent("abc");
+		assertEquivalent("foo$");
+	}
+
+	@Test
+	public void testCombined() {
+		assertEquivalent("[^/]*", "net/minecraft/.*", "com/mojang/[a-z]+");
+		assertEquivalent("ab?c.*", "\\$foo.*", "x{2}y.*");
+		assertEquivalent("net/minecraft/class_\\d+", "(net|com)/.*");
+		assertEquivalent("^net/minecraft/.*$", "foo\\$", "^[^/]*$");
+	}
+
+	@Test
+	public void testSharedBetweenThreads() {
+		List<Pattern> patterns = Arrays.asList(Pattern.compile("net/minecraft/class_\\d+"), Pattern.compile("com/mojang/[a-z]+"));
+		ObfuscationPatternMatcher matcher = new ObfuscationPatternMatcher(patterns);
+
+		IntStream.range(0, 100000).parallel().forEach((i) -> {
+			String name = i % 2 == 0 ? "net/minecraft/class_" + i : "com/mojang/" + (i % 3 == 0 ? "x" + i : "abc");
+			boolean expected = patterns.stream().anyMatch((pattern) -> pattern.matcher(name).matches());
+			Assertions.assertEquals(expected, matcher.matches(name), name);
+		});
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.fabricmc.stitch.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestRawZip {
+	// an even number of seconds, MS-DOS times only have a two second resolution
+	private static final long TIME = 1565000000000L;
+
+	private final List<File> files = new ArrayList<>();
+
+	@AfterEach
+	public void deleteFiles() {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	private File createTempFile() throws IOException {
+		File file = File.createTempFile("stitch-rawzip", ".jar");
+		files.add(file);
+		return file;
+	}
+
+	private static Map<String, byte[]> createContents() {
+		Map<String, byte[]> contents = new LinkedHashMap<>();
+		byte[] random = new byte[100000];
+		new Random(42).nextBytes(random);
+
+		contents.put("a.class", "compressible compressible compressible compressible".getBytes(StandardCharsets.UTF_8));
+		contents.put("net/minecraft/random.bin", random);
+		contents.put("empty.txt", new byte[0]);
+		contents.put("assets/café/über.json", "{}".getBytes(StandardCharsets.UTF_8));
+		return contents;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int length;
+
+		while ((length = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, length);
+		}
+
+		return out.toByteArray();
+	}
+
+	private static long crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+	/**
+	 * Writes the contents the way most jars are written, deflated with data descriptors after the data,
+	 * but with every other entry stored and an extra field only in the local header of the first one.
+	 */
+	private void writeWithZipOutputStream(File file, Map<String, byte[]> contents) throws IOException {
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+			int i = 0;
+
+			for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+				ZipEntry entry = new ZipEntry(content.getKey());
+				entry.setTime(TIME);
+
+				if (i == 0) {
+					entry.setExtra(new byte[] {(byte) 0xFE, (byte) 0xCA, 2, 0, 1, 2});
+				}
+
+				if (i++ % 2 == 1) {
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(content.getValue().length);
+					entry.setCompressedSize(content.getValue().length);
+					entry.setCrc(crc(content.getValue()));
+				}
+
+				out.putNextEntry(entry);
+				out.write(content.getValue());
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static void assertReadsWithZipFile(File file, Map<String, byte[]> contents) throws IOException {
+		try (ZipFile zip = new ZipFile(file)) {
+			List<String> names = new ArrayList<>();
+
+			for (ZipEntry entry : Collections.list(zip.entries())) {
+				names.add(entry.getName());
+				Assertions.assertEquals(TIME, entry.getTime(), entry.getName());
+
+				try (InputStream in = zip.getInputStream(entry)) {
+					Assertions.assertArrayEquals(contents.get(entry.getName()), readAll(in), entry.getName());
+				}
+			}
+
+			Assertions.assertEquals(new ArrayList<>(contents.keySet()), names);
+		}
+	}
+
+	@Test
+	public void writtenZipReadsWithZipFile() throws IOException {
+		Map<String, byte[]> contents = createContents();
+		File file = createTempFile();
+
+		try (RawZipWriter writer = new RawZipWriter(file)) {
+			for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+				writer.write(RawZipWriter.deflate(content.getKey(), RawZipEntry.toDosTime(TIME), content.getValue()));
+			}
+		}
+
+		assertReadsWithZipFile(file, contents);
+	}
+
+	@Test
+	public void zipOutputStreamZipReadsWithRawZipFile() throws IOException {
+		Map<String, byte[]> contents = createContents();
+		File file = createTempFile();
+		writeWithZipOutputStream(file, contents);
+
+		try (RawZipFile zip = new RawZipFile(file)) {
+			List<String> names = new ArrayList<>();
+
+			for (RawZipEntry entry : zip.getEntries()) {
+				byte[] data = contents.get(entry.getName());
+				names.add(entry.getName());
+
+				Assertions.assertSame(entry, zip.getEntry(entry.getName()));
+				Assertions.assertEquals(crc(data), entry.getCrc(), entry.getName());
+				Assertions.assertEquals(data.length, entry.getSize(), entry.getName());
+				Assertions.assertEquals(RawZipEntry.toDosTime(TIME), entry.getDosTime(), entry.getName());
+				Assertions.assertArrayEquals(data, zip.read(entry), entry.getName());
+			}
+
+			Assertions.assertEquals(new ArrayList<>(contents.keySet()), names);
+			Assertions.assertEquals(ZipEntry.DEFLATED, zip.getEntry("a.class").getMethod());
+			Assertions.assertEquals(ZipEntry.STORED, zip.getEntry("net/minecraft/random.bin").getMethod());
+			Assertions.assertNull(zip.getEntry("missing"));
+		}
+	}
+
+	@Test
+	public void rawCopyKeepsEntries() throws IOException {
+		Map<String, byte[]> contents = createContents();
+		File original = createTempFile();
+		File copy = createTempFile();
+		writeWithZipOutputStream(original, contents);
+
+		try (RawZipFile in = new RawZipFile(original);
+			RawZipWriter out = new RawZipWriter(copy)) {
+			for (RawZipEntry entry : in.getEntries()) {
+				out.write(entry, in.readRaw(entry));
+			}
+		}
+
+		assertReadsWithZipFile(copy, contents);
+
+		try (RawZipFile in = new RawZipFile(original);
+			RawZipFile copied = new RawZipFile(copy)) {
+			Assertions.assertEquals(in.getEntries().size(), copied.getEntries().size());
+
+			for (RawZipEntry entry : in.getEntries()) {
+				RawZipEntry copiedEntry = copied.getEntry(entry.getName());
+
+				Assertions.assertEquals(entry.getMethod(), copiedEntry.getMethod(), entry.getName());
+				Assertions.assertEquals(entry.getCrc(), copiedEntry.getCrc(), entry.getName());
+				Assertions.assertEquals(entry.getCompressedSize(), copiedEntry.getCompressedSize(), entry.getName());
+				Assertions.assertEquals(entry.getSize(), copiedEntry.getSize(), entry.getName());
+				Assertions.assertEquals(entry.getDosTime(), copiedEntry.getDosTime(), entry.getName());
+				Assertions.assertArrayEquals(in.readRaw(entry), copied.readRaw(copiedEntry), entry.getName());
+			}
+		}
+	}
+
+	@Test
+	public void mismatchedRawDataIsRejected() throws IOException {
+		File file = createTempFile();
+
+		try (RawZipWriter writer = new RawZipWriter(file)) {
+			RawZipWriter.Data data = RawZipWriter.deflate("a.txt", RawZipEntry.toDosTime(TIME), "abc".getBytes(StandardCharsets.UTF_8));
+			byte[] truncated = new byte[data.raw.length - 1];
+
+			Assertions.assertThrows(IllegalArgumentException.class, () -> writer.write(data.entry, truncated));
+		}
+	}
+}